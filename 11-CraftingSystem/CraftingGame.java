@@ -3,11 +3,42 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.imageio.ImageIO;
 import javax.swing.*;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
 
 /**
  * Lesson 11: Crafting System
@@ -74,6 +105,7 @@ class ParallaxLayer {
     private float scrollSpeed; // How fast this layer moves relative to camera (0.0 = static, 1.0 = camera speed)
     private int[] heights; // Height variations for mountains/hills
     private int yOffset; // Vertical position
+    private int maxHeight; // Tallest peak, used to tell if the layer is on screen
     private Random random;
     private long seed;
     
@@ -87,9 +119,16 @@ class ParallaxLayer {
         
         for (int i = 0; i < heights.length; i++) {
             heights[i] = 20 + random.nextInt(40);
+            maxHeight = Math.max(maxHeight, heights[i]);
         }
     }
     
+    // True if any part of the layer falls between screen rows top (inclusive) and bottom (exclusive)
+    public boolean overlapsRows(int top, int bottom, int windowHeight) {
+        int baseY = windowHeight - yOffset;
+        return baseY > top && baseY - maxHeight < bottom;
+    }
+    
     public void draw(Graphics2D g2d, Camera camera, int windowWidth, int windowHeight, TimeSystem timeSystem) {
         // Apply time-based color tinting
         Color skyColor = timeSystem.getSkyColor();
@@ -143,6 +182,8 @@ class ParallaxLayer {
 }
 
 class CelestialBodies {
+    static final int STAR_FIELD_HEIGHT = 300; // Stars only appear in the top part of the sky
+    
     private Star[] stars;
     private Cloud[] clouds;
     private Random random;
@@ -220,7 +261,8 @@ class CelestialBodies {
         }
     }
     
-    public void drawStars(Graphics2D g2d, TimeSystem timeSystem) {
+    // step > 1 draws only every step-th star
+    public void drawStars(Graphics2D g2d, TimeSystem timeSystem, int step) {
         // Only draw stars during night
         if (timeSystem.isNight()) {
             float starOpacity = 1.0f;
@@ -232,15 +274,15 @@ class CelestialBodies {
                 starOpacity = (1.0f - timeSystem.getTimeOfDay()) / 0.15f;
             }
             
-            for (Star star : stars) {
-                star.draw(g2d, starOpacity);
+            for (int i = 0; i < stars.length; i += step) {
+                stars[i].draw(g2d, starOpacity);
             }
         }
     }
     
-    public void updateClouds(long deltaTime) {
+    public void updateClouds(float dt) {
         for (Cloud cloud : clouds) {
-            cloud.update(deltaTime);
+            cloud.update(dt);
         }
     }
     
@@ -259,7 +301,7 @@ class Star {
     
     public Star(Random random) {
         this.x = random.nextInt(800);
-        this.y = random.nextInt(300);
+        this.y = random.nextInt(CelestialBodies.STAR_FIELD_HEIGHT);
         this.brightness = 0.5f + random.nextFloat() * 0.5f;
         this.twinkleSpeed = 0.5f + random.nextFloat() * 1.5f;
         this.twinklePhase = random.nextFloat() * (float)Math.PI * 2;
@@ -293,8 +335,8 @@ class Cloud {
         this.height = 30 + random.nextInt(30);
     }
     
-    public void update(long deltaTime) {
-        x += speed * (deltaTime / 1000.0f);
+    public void update(float dt) {
+        x += speed * dt;
     }
     
     public void draw(Graphics2D g2d, int windowWidth) {
@@ -312,12 +354,14 @@ class Cloud {
 
 class TimeSystem {
     private float timeOfDay = 0.5f; // 0.0 = midnight, 0.5 = noon, 1.0 = next midnight
-    private static final float DAY_LENGTH_MS = 120000f; // 2 minutes = full day/night cycle
+    private int day = 0;            // Completed day/night cycles
+    private static final float DAY_LENGTH = 120f; // Seconds; 2 minutes = full day/night cycle
     
-    public void update(long deltaTime) {
-        timeOfDay += deltaTime / DAY_LENGTH_MS;
+    public void update(float dt) {
+        timeOfDay += dt / DAY_LENGTH;
         if (timeOfDay >= 1.0f) {
             timeOfDay = 0.0f; // Reset to start new day
+            day++;
         }
     }
     
@@ -376,37 +420,236 @@ class TimeSystem {
     }
     
     public String getTimeString() {
+        return String.format("%02d:%02d", getHour(), getMinute());
+    }
+    
+    public int getHour() {
+        return (int) (timeOfDay * 24);
+    }
+    
+    public int getMinute() {
         int hour = (int) (timeOfDay * 24);
-        int minute = (int) ((timeOfDay * 24 - hour) * 60);
-        return String.format("%02d:%02d", hour, minute);
+        return (int) ((timeOfDay * 24 - hour) * 60);
     }
     
     public float getTimeOfDay() { return timeOfDay; }
+    public int getDay() { return day; }
+}
+
+// NEW: Light from moving sources (held torch, glowing enemies), kept apart from the world light map
+class DynamicLightOverlay {
+    private static final int MAX_LEVEL = 15;
+    
+    // Falloff stamp per light level: stamps[level][(dy + r) * (2r + 1) + (dx + r)] with r = level - 1
+    private static final int[][] STAMPS = new int[MAX_LEVEL + 1][];
+    
+    static {
+        for (int level = 1; level <= MAX_LEVEL; level++) {
+            int radius = level - 1;
+            int side = radius * 2 + 1;
+            STAMPS[level] = new int[side * side];
+            for (int dy = -radius; dy <= radius; dy++) {
+                for (int dx = -radius; dx <= radius; dx++) {
+                    // Same 1-per-step falloff as LightingSystem propagation (diagonals count as 1)
+                    STAMPS[level][(dy + radius) * side + (dx + radius)] =
+                        level - Math.max(Math.abs(dx), Math.abs(dy));
+                }
+            }
+        }
+    }
+    
+    private final World world;
+    private final int worldWidth, worldHeight;
+    
+    // Three overlays: the published front the renderer reads, the back being built, and the
+    // previous front, left alone for a tick so a chunk render still reading it never sees it
+    // cleared and rewritten. Each keeps the list of cells it lit, for cheap clearing.
+    private final int[][] levels = new int[3][];
+    private final int[][] touched = new int[3][];
+    private final int[] touchedCount = new int[3];
+    private volatile int front = 0;
+    private int back = 1;
+    
+    // Flood scratch space, sized for the largest stamp
+    private final int[] queue = new int[(MAX_LEVEL * 2 + 1) * (MAX_LEVEL * 2 + 1)];
+    private final int[] visited = new int[(MAX_LEVEL * 2 + 1) * (MAX_LEVEL * 2 + 1)];
+    private int floodId = 0;
+    private final boolean[] changedChunks = new boolean[World.CHUNKS_X * World.CHUNKS_Y];
+    
+    public DynamicLightOverlay(World world, int worldWidth, int worldHeight) {
+        this.world = world;
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+        for (int i = 0; i < 3; i++) {
+            levels[i] = new int[worldWidth * worldHeight];
+            touched[i] = new int[256];
+        }
+    }
+    
+    // Start building the next overlay, only cells lit last time need clearing
+    public void begin() {
+        int[] buffer = levels[back];
+        int[] cells = touched[back];
+        for (int i = 0; i < touchedCount[back]; i++) {
+            buffer[cells[i]] = 0;
+        }
+        touchedCount[back] = 0;
+    }
+    
+    // Stamp a light at tile (x, y), flooding outwards only through non-solid tiles
+    public void addLight(int x, int y, int level) {
+        level = Math.min(MAX_LEVEL, level);
+        if (level <= 0 || x < 0 || x >= worldWidth || y < 0 || y >= worldHeight) {
+            return;
+        }
+        int radius = level - 1;
+        int side = radius * 2 + 1;
+        int[] stamp = STAMPS[level];
+        floodId++;
+        
+        int head = 0, tail = 0;
+        int start = radius * side + radius;
+        queue[tail++] = start;
+        visited[start] = floodId;
+        while (head < tail) {
+            int cell = queue[head++];
+            int cx = cell % side - radius;
+            int cy = cell / side - radius;
+            int wx = x + cx;
+            int wy = y + cy;
+            light(wx * worldHeight + wy, stamp[cell]);
+            
+            // Solid tiles are lit but stop the light going further
+            if (stamp[cell] <= 1 || (cell != start && world.isSolid(wx, wy))) {
+                continue;
+            }
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    int nx = cx + dx, ny = cy + dy;
+                    if ((dx == 0 && dy == 0) || nx < -radius || nx > radius || ny < -radius || ny > radius) {
+                        continue;
+                    }
+                    if (x + nx < 0 || x + nx >= worldWidth || y + ny < 0 || y + ny >= worldHeight) {
+                        continue;
+                    }
+                    int next = (ny + radius) * side + (nx + radius);
+                    if (visited[next] != floodId) {
+                        visited[next] = floodId;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+        }
+    }
+    
+    private void light(int index, int level) {
+        int[] buffer = levels[back];
+        if (buffer[index] == 0) {
+            if (touchedCount[back] == touched[back].length) {
+                touched[back] = java.util.Arrays.copyOf(touched[back], touchedCount[back] * 2);
+            }
+            touched[back][touchedCount[back]++] = index;
+        }
+        buffer[index] = Math.max(buffer[index], level);
+    }
+    
+    // Publish the new overlay, then bump the light version of every chunk whose light changed
+    public void end(AtomicIntegerArray chunkLightVersions) {
+        boolean[] changed = changedChunks;
+        java.util.Arrays.fill(changed, false);
+        int oldFront = front;
+        markChanged(oldFront, changed);
+        markChanged(back, changed);
+        
+        // Volatile write publishes the new overlay before any version that depends on it
+        front = back;
+        back = 3 - oldFront - back; // The overlay retired one tick ago
+        for (int i = 0; i < changed.length; i++) {
+            if (changed[i]) {
+                chunkLightVersions.incrementAndGet(i);
+            }
+        }
+    }
+    
+    // Chunks where the cells lit in one buffer differ between the front and back overlays
+    private void markChanged(int buffer, boolean[] changed) {
+        int[] frontLevels = levels[front];
+        int[] backLevels = levels[back];
+        int[] cells = touched[buffer];
+        for (int i = 0; i < touchedCount[buffer]; i++) {
+            int index = cells[i];
+            if (frontLevels[index] != backLevels[index]) {
+                int x = index / worldHeight;
+                int y = index % worldHeight;
+                changed[(y / World.CHUNK_SIZE) * World.CHUNKS_X + x / World.CHUNK_SIZE] = true;
+            }
+        }
+    }
+    
+    public int getLevel(int x, int y) {
+        return levels[front][x * worldHeight + y];
+    }
 }
 
 class LightingSystem {
-    private int[][] lightLevels;
+    // Finished light map read by the renderer; each update builds a new one and swaps it in
+    private volatile int[][] lightLevels;
+    private int[][] workLevels;
     private int worldWidth, worldHeight;
     private World world;
     
+    // Bumped for a chunk whenever any light level inside it changes, always after the new light
+    // is published: a reader that sees the new version is guaranteed to see the new light
+    private final AtomicIntegerArray chunkLightVersions = new AtomicIntegerArray(World.CHUNKS_X * World.CHUNKS_Y);
+    private final boolean[] changedChunks = new boolean[World.CHUNKS_X * World.CHUNKS_Y];
+    private int lastSunlight = -1;     // Inputs of the last rebuild, see calculateLighting
+    private int lastWorldVersion = -1;
+    
+    // Moving lights, combined with the world light map in getLightLevel
+    private final DynamicLightOverlay dynamicLights;
+    
     public LightingSystem(int worldWidth, int worldHeight, World world) {
         this.worldWidth = worldWidth;
         this.worldHeight = worldHeight;
         this.world = world;
         this.lightLevels = new int[worldWidth][worldHeight];
+        this.dynamicLights = new DynamicLightOverlay(world, worldWidth, worldHeight);
+    }
+    
+    // Dynamic lights are re-submitted every tick: begin, add each light, end
+    public void beginDynamicLights() {
+        dynamicLights.begin();
+    }
+    
+    public void addDynamicLight(int tileX, int tileY, int level) {
+        dynamicLights.addLight(tileX, tileY, level);
+    }
+    
+    public void endDynamicLights() {
+        dynamicLights.end(chunkLightVersions);
     }
     
     public void calculateLighting(float ambientLight) {
-        // Reset all light levels
-        for (int x = 0; x < worldWidth; x++) {
-            for (int y = 0; y < worldHeight; y++) {
-                lightLevels[x][y] = 0;
-            }
+        // The map depends only on the tiles and the sunlight level; skip the rebuild when
+        // neither changed since the last one (edits are batched at the start of each tick)
+        int sunlight = ambientLight > 0.3f ? (int) (15 * ambientLight) : 0;
+        if (sunlight == lastSunlight && world.getVersion() == lastWorldVersion) {
+            return;
+        }
+        lastSunlight = sunlight;
+        lastWorldVersion = world.getVersion();
+        LightingEvent event = FlightEvents.active() && LightingEvent.TYPE.isEnabled() ?
+                              new LightingEvent() : null;
+        if (event != null) {
+            event.begin();
         }
         
+        // Start from a fresh map so the renderer never sees a half-built one
+        workLevels = new int[worldWidth][worldHeight];
+        
         // Add sunlight from the top during day
-        if (ambientLight > 0.3f) {
-            addSunlight((int) (15 * ambientLight));
+        if (sunlight > 0) {
+            addSunlight(sunlight);
         }
         
         // Add light from light-emitting blocks
@@ -414,6 +657,81 @@ class LightingSystem {
         
         // Propagate light
         propagateLight();
+        
+        int[][] oldLevels = lightLevels;
+        int chunksChanged = publish(workLevels);
+        
+        if (event != null && event.shouldCommit()) {
+            // Sunlight and block light scan the map once, then three propagation passes
+            event.sunlight = sunlight;
+            event.cellsTouched = worldWidth * worldHeight * 5;
+            event.cellsChanged = countChangedCells(oldLevels, workLevels);
+            event.chunksChanged = chunksChanged;
+            event.commit();
+        }
+    }
+    
+    // Swap in the new map, bumping the version of each chunk it changed; returns that count
+    private int publish(int[][] newLevels) {
+        int[][] oldLevels = lightLevels;
+        for (int cx = 0; cx < World.CHUNKS_X; cx++) {
+            for (int cy = 0; cy < World.CHUNKS_Y; cy++) {
+                changedChunks[cy * World.CHUNKS_X + cx] = chunkDiffers(oldLevels, newLevels, cx, cy);
+            }
+        }
+        
+        // Map first, versions second, so no render can pair a new version with the old map
+        lightLevels = newLevels;
+        int changed = 0;
+        for (int i = 0; i < changedChunks.length; i++) {
+            if (changedChunks[i]) {
+                chunkLightVersions.incrementAndGet(i);
+                changed++;
+            }
+        }
+        return changed;
+    }
+    
+    private int countChangedCells(int[][] a, int[][] b) {
+        int count = 0;
+        for (int x = 0; x < worldWidth; x++) {
+            for (int y = 0; y < worldHeight; y++) {
+                if (a[x][y] != b[x][y]) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+    
+    private boolean chunkDiffers(int[][] a, int[][] b, int cx, int cy) {
+        int endX = Math.min(worldWidth, (cx + 1) * World.CHUNK_SIZE);
+        int endY = Math.min(worldHeight, (cy + 1) * World.CHUNK_SIZE);
+        for (int x = cx * World.CHUNK_SIZE; x < endX; x++) {
+            for (int y = cy * World.CHUNK_SIZE; y < endY; y++) {
+                if (a[x][y] != b[x][y]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    public int getChunkLightVersion(int chunk) {
+        return chunkLightVersions.get(chunk);
+    }
+    
+    // Changes whenever light changes in this chunk or any chunk touching it
+    public int getNeighborhoodLightVersion(int chunk) {
+        int cx = chunk % World.CHUNKS_X;
+        int cy = chunk / World.CHUNKS_X;
+        int sum = 0;
+        for (int nx = Math.max(0, cx - 1); nx <= Math.min(World.CHUNKS_X - 1, cx + 1); nx++) {
+            for (int ny = Math.max(0, cy - 1); ny <= Math.min(World.CHUNKS_Y - 1, cy + 1); ny++) {
+                sum += chunkLightVersions.get(ny * World.CHUNKS_X + nx);
+            }
+        }
+        return sum;
     }
     
     private void addSunlight(int sunlightLevel) {
@@ -421,7 +739,7 @@ class LightingSystem {
             int currentLight = sunlightLevel;
             for (int y = 0; y < worldHeight; y++) {
                 if (world.getTile(x, y) == TileType.AIR) {
-                    lightLevels[x][y] = Math.max(lightLevels[x][y], currentLight);
+                    workLevels[x][y] = Math.max(workLevels[x][y], currentLight);
                     currentLight = Math.max(0, currentLight - 1);
                 } else {
                     break; // Stop sunlight when hitting solid block
@@ -435,7 +753,7 @@ class LightingSystem {
             for (int y = 0; y < worldHeight; y++) {
                 TileType tile = world.getTile(x, y);
                 if (tile.getLightLevel() > 0) {
-                    lightLevels[x][y] = tile.getLightLevel();
+                    workLevels[x][y] = tile.getLightLevel();
                 }
             }
         }
@@ -448,7 +766,7 @@ class LightingSystem {
             
             for (int x = 0; x < worldWidth; x++) {
                 for (int y = 0; y < worldHeight; y++) {
-                    newLightLevels[x][y] = lightLevels[x][y];
+                    newLightLevels[x][y] = workLevels[x][y];
                     
                     // Check neighboring cells and propagate light
                     for (int dx = -1; dx <= 1; dx++) {
@@ -459,8 +777,8 @@ class LightingSystem {
                             int ny = y + dy;
                             
                             if (nx >= 0 && nx < worldWidth && ny >= 0 && ny < worldHeight) {
-                                if (world.getTile(nx, ny) == TileType.AIR && lightLevels[nx][ny] > 1) {
-                                    int propagatedLight = lightLevels[nx][ny] - 1;
+                                if (world.getTile(nx, ny) == TileType.AIR && workLevels[nx][ny] > 1) {
+                                    int propagatedLight = workLevels[nx][ny] - 1;
                                     newLightLevels[x][y] = Math.max(newLightLevels[x][y], propagatedLight);
                                 }
                             }
@@ -469,7 +787,7 @@ class LightingSystem {
                 }
             }
             
-            lightLevels = newLightLevels;
+            workLevels = newLightLevels;
         }
     }
     
@@ -477,38 +795,48 @@ class LightingSystem {
         if (x < 0 || x >= worldWidth || y < 0 || y >= worldHeight) {
             return 0;
         }
-        return lightLevels[x][y];
+        return Math.max(lightLevels[x][y], dynamicLights.getLevel(x, y));
     }
     
     public Color applyLighting(Color baseColor, int lightLevel, float ambientLight) {
+        return new Color(applyLightingRGB(baseColor.getRGB(), lightLevel, ambientLight));
+    }
+    
+    // Same as applyLighting, but works on packed 0xRRGGBB ints so hot loops don't allocate.
+    // The light level may be fractional (smooth lighting averages neighbouring tiles).
+    public static int applyLightingRGB(int baseRgb, float lightLevel, float ambientLight) {
         // Make night much darker - reduced ambient light contribution
         float totalLight = Math.max(lightLevel / 15.0f, ambientLight * 0.15f);
         totalLight = Math.min(1.0f, totalLight);
         
-        int r = (int) (baseColor.getRed() * totalLight);
-        int g = (int) (baseColor.getGreen() * totalLight);
-        int b = (int) (baseColor.getBlue() * totalLight);
+        int r = (int) (((baseRgb >> 16) & 0xFF) * totalLight);
+        int g = (int) (((baseRgb >> 8) & 0xFF) * totalLight);
+        int b = (int) ((baseRgb & 0xFF) * totalLight);
         
-        return new Color(r, g, b);
+        return (r << 16) | (g << 8) | b;
     }
     
     // NEW: Apply warm lamp glow effect
     public Color applyLampGlow(Color baseColor, int lightLevel, float ambientLight) {
+        return new Color(applyLampGlowRGB(baseColor.getRGB(), lightLevel, ambientLight));
+    }
+    
+    public static int applyLampGlowRGB(int baseRgb, float lightLevel, float ambientLight) {
         float totalLight = Math.max(lightLevel / 15.0f, ambientLight * 0.15f);
         totalLight = Math.min(1.0f, totalLight);
         
         // Add warm orange tint for lamp light
         float warmth = lightLevel / 15.0f * 0.3f; // 30% warm tint at max light
         
-        int r = (int) (baseColor.getRed() * totalLight * (1.0f + warmth));
-        int g = (int) (baseColor.getGreen() * totalLight * (1.0f + warmth * 0.7f));
-        int b = (int) (baseColor.getBlue() * totalLight);
+        int r = (int) (((baseRgb >> 16) & 0xFF) * totalLight * (1.0f + warmth));
+        int g = (int) (((baseRgb >> 8) & 0xFF) * totalLight * (1.0f + warmth * 0.7f));
+        int b = (int) ((baseRgb & 0xFF) * totalLight);
         
         r = Math.min(255, r);
         g = Math.min(255, g);
         b = Math.min(255, b);
         
-        return new Color(r, g, b);
+        return (r << 16) | (g << 8) | b;
     }
     
     // NEW: Check if a block creates shadow (is solid and blocks light)
@@ -569,194 +897,761 @@ class ItemStack {
     public int getMaxStackSize() { return maxStackSize; }
 }
 
-class DamageIndicator {
-    private int x, y;
-    private int damage;
-    private long creationTime;
-    private static final long DURATION = 2000;
+// NEW: Anything drawn in world space that can be culled against the camera
+interface WorldDrawable {
+    int getDrawLayer();
     
-    public DamageIndicator(int x, int y, int damage) {
-        this.x = x;
-        this.y = y;
-        this.damage = damage;
-        this.creationTime = System.currentTimeMillis();
+    // True if the drawn area overlaps the world-pixel rectangle [left, right) x [top, bottom)
+    boolean intersects(int left, int top, int right, int bottom);
+    
+    void draw(Graphics2D g2d, Camera camera, LightingSystem lighting, float ambientLight);
+}
+
+// NEW: Per-frame list of visible world objects, bucketed by layer (drawn back to front)
+class DrawList {
+    static final int LAYER_ENEMIES = 0;
+    static final int LAYER_PLAYER = 1;
+    static final int LAYER_EFFECTS = 2; // Emitters and other world-space effects
+    static final int LAYER_INDICATORS = 3;
+    private static final int LAYER_COUNT = 4;
+    private static final int CULL_MARGIN = 32; // Pixels around the screen that still count as visible
+    
+    private final List<List<WorldDrawable>> layers = new ArrayList<>();
+    private int left, top, right, bottom;
+    private int submitted = 0;
+    private int visible = 0;
+    
+    public DrawList() {
+        for (int i = 0; i < LAYER_COUNT; i++) {
+            layers.add(new ArrayList<>());
+        }
     }
     
-    public void update() {
-        y -= 1;
+    // Start a new frame with the camera rectangle as the cull area
+    public void begin(Camera camera, int screenWidth, int screenHeight) {
+        for (List<WorldDrawable> layer : layers) {
+            layer.clear();
+        }
+        left = camera.getX() - CULL_MARGIN;
+        top = camera.getY() - CULL_MARGIN;
+        right = camera.getX() + screenWidth + CULL_MARGIN;
+        bottom = camera.getY() + screenHeight + CULL_MARGIN;
+        submitted = 0;
+        visible = 0;
     }
     
-    public void draw(Graphics2D g2d, Camera camera) {
-        long age = System.currentTimeMillis() - creationTime;
-        if (age > DURATION) return;
-        
-        float alpha = 1.0f - (float) age / DURATION;
-        g2d.setColor(new Color(255, 0, 0, (int) (255 * alpha)));
-        g2d.setFont(new Font("Arial", Font.BOLD, 14));
-        g2d.drawString("-" + damage, x - camera.getX(), y - camera.getY());
+    // True if the world-pixel rectangle overlaps the current cull area
+    public boolean isVisible(int x, int y, int width, int height) {
+        return x < right && x + width > left && y < bottom && y + height > top;
     }
     
-    public boolean isExpired() {
-        return System.currentTimeMillis() - creationTime > DURATION;
+    public void add(WorldDrawable drawable) {
+        submitted++;
+        if (drawable.intersects(left, top, right, bottom)) {
+            layers.get(drawable.getDrawLayer()).add(drawable);
+            visible++;
+        }
     }
-}
-
-class Enemy {
-    private float x, y;
-    private float velocityX, velocityY;
-    private int width, height;
-    private int health;
-    private boolean onGround;
-    private World world;
-    private Player target;
-    private AIState state;
-    private long lastAttackTime = 0;
-    private static final long ATTACK_COOLDOWN = 2000;
     
-    enum AIState { WANDER, CHASE, ATTACK }
+    public void addAll(List<? extends WorldDrawable> drawables) {
+        for (int i = 0; i < drawables.size(); i++) {
+            add(drawables.get(i));
+        }
+    }
     
-    private static final float GRAVITY = 0.3f;
-    private static final float MOVE_SPEED = 1.5f;
-    private static final int DAMAGE = 20;
-    private static final float CHASE_RANGE = 80.0f;
-    private static final float ATTACK_RANGE = 25.0f;
+    public void draw(Graphics2D g2d, Camera camera, LightingSystem lighting, float ambientLight) {
+        for (List<WorldDrawable> layer : layers) {
+            for (int i = 0; i < layer.size(); i++) {
+                layer.get(i).draw(g2d, camera, lighting, ambientLight);
+            }
+        }
+    }
     
-    public Enemy(float startX, float startY, World world, Player target) {
-        this.x = startX;
-        this.y = startY;
-        this.world = world;
-        this.target = target;
-        this.width = 16;
-        this.height = 20;
-        this.health = 50;
-        this.velocityX = 0;
-        this.velocityY = 0;
-        this.onGround = false;
-        this.state = AIState.WANDER;
+    public int getSubmittedCount() { return submitted; }
+    public int getVisibleCount() { return visible; }
+}
+
+// NEW: Text drawn from a glyph atlas rasterised once, for text that changes every frame
+class BitmapFont {
+    private static final char FIRST_CHAR = 32;
+    private static final char LAST_CHAR = 126;
+    
+    // Shared fonts for the HUD and world text
+    static final BitmapFont HUD = new BitmapFont(new Font("Arial", Font.BOLD, 12), Color.WHITE);
+    static final BitmapFont HUD_CYAN = new BitmapFont(new Font("Arial", Font.BOLD, 12), Color.CYAN);
+    static final BitmapFont HUD_SMALL = new BitmapFont(new Font("Arial", Font.BOLD, 10), Color.WHITE);
+    static final BitmapFont HUD_LARGE = new BitmapFont(new Font("Arial", Font.BOLD, 14), Color.WHITE);
+    static final BitmapFont HUD_LARGE_RED = new BitmapFont(new Font("Arial", Font.BOLD, 14), Color.RED);
+    
+    // Alpha composites by 0-255 alpha, so fading text doesn't allocate
+    private static final AlphaComposite[] FADES = new AlphaComposite[256];
+    
+    static {
+        for (int alpha = 0; alpha < 256; alpha++) {
+            FADES[alpha] = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha / 255f);
+        }
     }
     
-    public void update() {
-        updateAI();
-        applyPhysics();
+    private final BufferedImage atlas;
+    private final int[] glyphX = new int[LAST_CHAR + 1];
+    private final int[] glyphWidth = new int[LAST_CHAR + 1];
+    private final int ascent;
+    private final int height;
+    private final char[] digits = new char[11]; // Scratch space for drawInt
+    
+    public BitmapFont(Font font, Color color) {
+        BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D sg = scratch.createGraphics();
+        FontMetrics metrics = sg.getFontMetrics(font);
+        sg.dispose();
         
-        if (isCollidingWithPlayer() && canAttack()) {
-            target.takeDamage(DAMAGE);
-            lastAttackTime = System.currentTimeMillis();
+        ascent = metrics.getAscent();
+        height = metrics.getAscent() + metrics.getDescent();
+        int atlasWidth = 0;
+        for (char c = FIRST_CHAR; c <= LAST_CHAR; c++) {
+            glyphX[c] = atlasWidth;
+            glyphWidth[c] = metrics.charWidth(c);
+            atlasWidth += glyphWidth[c] + 1; // 1px gap so glyphs never bleed into each other
         }
+        
+        atlas = new BufferedImage(atlasWidth, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = atlas.createGraphics();
+        g.setFont(font);
+        g.setColor(color);
+        char[] one = new char[1];
+        for (char c = FIRST_CHAR; c <= LAST_CHAR; c++) {
+            one[0] = c;
+            g.drawChars(one, 0, 1, glyphX[c], ascent);
+        }
+        g.dispose();
     }
     
-    private void updateAI() {
-        float distToPlayer = distance(x, y, target.getX(), target.getY());
-        
-        switch (state) {
-            case WANDER:
-                if (distToPlayer < CHASE_RANGE) {
-                    state = AIState.CHASE;
-                } else {
-                    if (Math.random() < 0.01) {
-                        velocityX = (Math.random() < 0.5) ? -MOVE_SPEED : MOVE_SPEED;
-                    }
-                    if (Math.random() < 0.005) {
-                        velocityX = 0;
-                    }
-                }
-                break;
-                
-            case CHASE:
-                if (distToPlayer > CHASE_RANGE * 1.5) {
-                    state = AIState.WANDER;
-                    velocityX = 0;
-                } else if (distToPlayer < ATTACK_RANGE) {
-                    state = AIState.ATTACK;
-                    velocityX = 0;
-                } else {
-                    if (target.getX() < x) {
-                        velocityX = -MOVE_SPEED;
-                    } else {
-                        velocityX = MOVE_SPEED;
-                    }
-                    
-                    if (checkWallInDirection(velocityX > 0 ? 1 : -1) && onGround) {
-                        velocityY = -8.0f;
-                    }
-                }
-                break;
-                
-            case ATTACK:
-                if (distToPlayer > ATTACK_RANGE) {
-                    state = AIState.CHASE;
-                } else {
-                    velocityX = 0;
-                }
-                break;
+    // Draws like Graphics.drawChars: (x, y) is the left end of the baseline. Returns the end x.
+    public int drawChars(Graphics2D g2d, char[] chars, int offset, int length, int x, int y) {
+        int top = y - ascent;
+        for (int i = offset; i < offset + length; i++) {
+            x = drawChar(g2d, chars[i], x, top);
         }
+        return x;
     }
     
-    private boolean checkWallInDirection(int dir) {
-        int checkX = (int) ((x + width * dir) / World.TILE_SIZE);
-        int checkY = (int) (y / World.TILE_SIZE);
-        return world.isSolid(checkX, checkY);
+    public int drawString(Graphics2D g2d, String text, int x, int y) {
+        int top = y - ascent;
+        for (int i = 0; i < text.length(); i++) {
+            x = drawChar(g2d, text.charAt(i), x, top);
+        }
+        return x;
+    }
+    
+    public int drawInt(Graphics2D g2d, int value, int x, int y) {
+        return drawInt(g2d, value, 1, x, y);
     }
     
-    private void applyPhysics() {
-        if (!onGround) {
-            velocityY += GRAVITY;
+    // Draw an integer, zero-padded to at least minDigits, without building a String
+    public int drawInt(Graphics2D g2d, int value, int minDigits, int x, int y) {
+        int length = formatInt(value, minDigits);
+        return drawChars(g2d, digits, digits.length - length, length, x, y);
+    }
+    
+    public int intWidth(int value) {
+        int length = formatInt(value, 1);
+        int width = 0;
+        for (int i = digits.length - length; i < digits.length; i++) {
+            width += glyphWidth[digits[i]];
         }
-        
-        moveHorizontal(velocityX);
-        moveVertical(velocityY);
+        return width;
     }
     
-    private void moveHorizontal(float deltaX) {
-        x += deltaX;
-        if (checkCollision()) {
-            x -= deltaX;
+    // Same as drawChars but faded by alpha (0-255)
+    public int drawFaded(Graphics2D g2d, char[] chars, int offset, int length, int x, int y, int alpha) {
+        Composite old = g2d.getComposite();
+        g2d.setComposite(FADES[Math.max(0, Math.min(255, alpha))]);
+        x = drawChars(g2d, chars, offset, length, x, y);
+        g2d.setComposite(old);
+        return x;
+    }
+    
+    // Fills the end of the digits buffer, returns how many chars were written
+    private int formatInt(int value, int minDigits) {
+        long v = Math.abs((long) value);
+        int pos = digits.length;
+        do {
+            digits[--pos] = (char) ('0' + v % 10);
+            v /= 10;
+        } while (v > 0 && pos > 1);
+        while (digits.length - pos < minDigits && pos > 1) {
+            digits[--pos] = '0';
         }
+        if (value < 0) {
+            digits[--pos] = '-';
+        }
+        return digits.length - pos;
     }
     
-    private void moveVertical(float deltaY) {
-        y += deltaY;
-        if (checkCollision()) {
-            y -= deltaY;
-            if (deltaY > 0) {
-                onGround = true;
-            }
-            velocityY = 0;
-        } else {
-            onGround = false;
+    private int drawChar(Graphics2D g2d, char c, int x, int top) {
+        if (c < FIRST_CHAR || c > LAST_CHAR) {
+            c = '?';
+        }
+        int sx = glyphX[c];
+        int w = glyphWidth[c];
+        if (c != ' ') {
+            g2d.drawImage(atlas, x, top, x + w, top + height, sx, 0, sx + w, height, null);
+        }
+        return x + w;
+    }
+}
+
+// NEW: Fixed-capacity particles stored as parallel primitive arrays (no object per particle)
+class ParticleSystem implements WorldDrawable {
+    static final int CAPACITY = 16384;
+    
+    // Palette: one entry per TileType (debris), followed by effect colours
+    static final int COLOR_BLOOD = TileType.values().length;
+    static final int COLOR_SPARK = COLOR_BLOOD + 1;
+    static final int COLOR_EMBER = COLOR_BLOOD + 2;
+    private static final int[] PALETTE = new int[COLOR_BLOOD + 3];
+    
+    static {
+        for (TileType type : TileType.values()) {
+            PALETTE[type.ordinal()] = type.getColor().getRGB();
         }
+        PALETTE[COLOR_BLOOD] = 0xFFB00000;
+        PALETTE[COLOR_SPARK] = 0xFFFFC040;
+        PALETTE[COLOR_EMBER] = 0xFFFF8020;
     }
     
-    private boolean checkCollision() {
-        int left = (int) (x / World.TILE_SIZE);
-        int right = (int) ((x + width) / World.TILE_SIZE);
-        int top = (int) (y / World.TILE_SIZE);
-        int bottom = (int) ((y + height) / World.TILE_SIZE);
-        
-        return world.isSolid(left, top) || world.isSolid(right, top) ||
-               world.isSolid(left, bottom) || world.isSolid(right, bottom);
+    private static final float GRAVITY = 900f; // Pixels per second squared
+    private static final int SIZE = 2; // Particle size in pixels
+    
+    private final World world;
+    private final Random random = new Random();
+    
+    private final float[] x = new float[CAPACITY];
+    private final float[] y = new float[CAPACITY];
+    private final float[] velocityX = new float[CAPACITY];
+    private final float[] velocityY = new float[CAPACITY];
+    private final float[] gravity = new float[CAPACITY]; // Embers float, debris falls
+    private final float[] life = new float[CAPACITY];    // Seconds left, <= 0 = free slot
+    private final byte[] color = new byte[CAPACITY];
+    
+    // Free slots as a stack, plus the highest slot ever used so updates stop early
+    private final int[] freeList = new int[CAPACITY];
+    private int freeCount;
+    private int highWater = 0;
+    private int liveCount = 0;
+    
+    // Pixel overlay the particles are written into, then drawn with one drawImage
+    private BufferedImage overlay;
+    private int[] overlayPixels;
+    private int dirtyMinX, dirtyMinY, dirtyMaxX = -1, dirtyMaxY = -1;
+    
+    public ParticleSystem(World world) {
+        this.world = world;
+        for (int i = 0; i < CAPACITY; i++) {
+            freeList[i] = CAPACITY - 1 - i;
+        }
+        freeCount = CAPACITY;
     }
     
-    private boolean isCollidingWithPlayer() {
-        return x < target.getX() + 12 && x + width > target.getX() &&
-               y < target.getY() + 24 && y + height > target.getY();
+    // Spawn count particles around (px, py) in world pixels, speed in pixels per second and
+    // lifetime in seconds; silently drops them when full
+    public synchronized void emit(float px, float py, int count, int colorIndex, float speed,
+                                  float gravityScale, float lifetime) {
+        for (int n = 0; n < count && freeCount > 0; n++) {
+            int i = freeList[--freeCount];
+            highWater = Math.max(highWater, i + 1);
+            double angle = random.nextDouble() * Math.PI * 2;
+            float v = speed * (0.3f + random.nextFloat() * 0.7f);
+            x[i] = px;
+            y[i] = py;
+            velocityX[i] = (float) Math.cos(angle) * v;
+            velocityY[i] = (float) Math.sin(angle) * v - speed * 0.5f;
+            gravity[i] = GRAVITY * gravityScale;
+            life[i] = lifetime * (0.5f + random.nextFloat() * 0.5f);
+            color[i] = (byte) colorIndex;
+            liveCount++;
+        }
     }
     
-    private boolean canAttack() {
-        return System.currentTimeMillis() - lastAttackTime > ATTACK_COOLDOWN;
+    public synchronized void update(float dt) {
+        int newHighWater = 0;
+        for (int i = 0; i < highWater; i++) {
+            if (life[i] <= 0) {
+                continue;
+            }
+            life[i] -= dt;
+            if (life[i] <= 0) {
+                freeList[freeCount++] = i;
+                liveCount--;
+                continue;
+            }
+            newHighWater = i + 1;
+            
+            velocityY[i] += gravity[i] * dt;
+            float nx = x[i] + velocityX[i] * dt;
+            float ny = y[i] + velocityY[i] * dt;
+            
+            // Cheap collision: test the destination tile, bounce off and lose most speed
+            if (world.isSolid((int) nx / World.TILE_SIZE, (int) y[i] / World.TILE_SIZE)) {
+                velocityX[i] *= -0.3f;
+                nx = x[i];
+            }
+            if (world.isSolid((int) nx / World.TILE_SIZE, (int) ny / World.TILE_SIZE)) {
+                velocityY[i] *= -0.3f;
+                velocityX[i] *= 0.7f;
+                ny = y[i];
+            }
+            x[i] = nx;
+            y[i] = ny;
+        }
+        highWater = newHighWater;
     }
     
-    private float distance(float x1, float y1, float x2, float y2) {
-        return (float) Math.sqrt((x2 - x1) * (x2 - x1) + (y2 - y1) * (y2 - y1));
+    public int getLiveCount() { return liveCount; }
+    
+    @Override
+    public int getDrawLayer() { return DrawList.LAYER_EFFECTS; }
+    
+    @Override
+    public boolean intersects(int left, int top, int right, int bottom) {
+        return liveCount > 0; // Individual particles are culled while drawing
     }
     
+    @Override
     public void draw(Graphics2D g2d, Camera camera, LightingSystem lighting, float ambientLight) {
-        int drawX = (int) (x - camera.getX());
-        int drawY = (int) (y - camera.getY());
+        Rectangle clip = g2d.getClipBounds();
+        int width = clip != null ? clip.x + clip.width : 800;
+        int height = clip != null ? clip.y + clip.height : 600;
+        if (overlay == null || overlay.getWidth() != width || overlay.getHeight() != height) {
+            overlay = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            overlayPixels = ((DataBufferInt) overlay.getRaster().getDataBuffer()).getData();
+            // New image is already clear, forget the old box (it may not even fit)
+            dirtyMinX = width;
+            dirtyMinY = height;
+            dirtyMaxX = -1;
+            dirtyMaxY = -1;
+        }
         
-        // Get lighting for enemy position
-        int lightLevel = lighting.getLightLevel((int) (x / World.TILE_SIZE), (int) (y / World.TILE_SIZE));
-        Color enemyColor = lighting.applyLighting(Color.RED, lightLevel, ambientLight);
+        // Clear only the area touched last frame
+        for (int py = dirtyMinY; py <= dirtyMaxY; py++) {
+            java.util.Arrays.fill(overlayPixels, py * width + dirtyMinX, py * width + dirtyMaxX + 1, 0);
+        }
+        dirtyMinX = width;
+        dirtyMinY = height;
+        dirtyMaxX = -1;
+        dirtyMaxY = -1;
+        
+        int cameraX = camera.getX();
+        int cameraY = camera.getY();
+        int limit = highWater;
+        for (int i = 0; i < limit; i++) {
+            if (life[i] <= 0) {
+                continue;
+            }
+            int sx = (int) x[i] - cameraX;
+            int sy = (int) y[i] - cameraY;
+            if (sx < 0 || sy < 0 || sx + SIZE > width || sy + SIZE > height) {
+                continue; // Off screen
+            }
+            int rgb = PALETTE[color[i]];
+            int row = sy * width + sx;
+            overlayPixels[row] = rgb;
+            overlayPixels[row + 1] = rgb;
+            overlayPixels[row + width] = rgb;
+            overlayPixels[row + width + 1] = rgb;
+            
+            dirtyMinX = Math.min(dirtyMinX, sx);
+            dirtyMinY = Math.min(dirtyMinY, sy);
+            dirtyMaxX = Math.max(dirtyMaxX, sx + SIZE - 1);
+            dirtyMaxY = Math.max(dirtyMaxY, sy + SIZE - 1);
+        }
+        
+        if (dirtyMaxX >= 0) {
+            g2d.drawImage(overlay, dirtyMinX, dirtyMinY, dirtyMaxX + 1, dirtyMaxY + 1,
+                          dirtyMinX, dirtyMinY, dirtyMaxX + 1, dirtyMaxY + 1, null);
+        }
+    }
+}
+
+// NEW: Rain and snow over the surface; drops hit the per-column surface height instead of tiles
+class WeatherSystem implements WorldDrawable {
+    enum Weather { CLEAR, RAIN, SNOW }
+    
+    static final int CAPACITY = 2048;
+    private static final int RAIN_LENGTH = 6;        // Rain streak length in pixels
+    private static final Color RAIN_COLOR = new Color(160, 192, 240);
+    private static final Color SNOW_COLOR = new Color(240, 244, 255);
+    private static final int LIGHT_STEPS = 64;       // Drop colours are cached per 1/64 of ambient light
+    private static final Color[] RAIN_COLORS = shadedColors(RAIN_COLOR);
+    private static final Color[] SNOW_COLORS = shadedColors(SNOW_COLOR);
+    private static final float FADE_SPEED = 0.05f;   // Intensity change per second
+    private static final float RAIN_RATE = 1680f;    // Drops spawned per second at full intensity
+    private static final float SNOW_RATE = 300f;
+    
+    private final World world;
+    private final Random random;
+    
+    private final float[] x = new float[CAPACITY];
+    private final float[] y = new float[CAPACITY];
+    private final float[] velocityX = new float[CAPACITY];
+    private final float[] velocityY = new float[CAPACITY];
+    private int count = 0; // Live drops are packed into [0, count)
+    
+    private Weather weather = Weather.CLEAR;
+    private float intensity = 0;       // 0..1, eases towards targetIntensity
+    private float targetIntensity = 0;
+    private float wind = 0;
+    private int weatherPeriod = -1;    // Half-day the current weather was rolled for
+    private float spawnCarry = 0;      // Fractional drops left over from the last tick
+    
+    public WeatherSystem(World world, long seed) {
+        this.world = world;
+        this.random = new Random(seed);
+    }
+    
+    private static Color[] shadedColors(Color base) {
+        Color[] colors = new Color[LIGHT_STEPS + 1];
+        for (int step = 0; step <= LIGHT_STEPS; step++) {
+            float light = (float) step / LIGHT_STEPS;
+            colors[step] = new Color((int) (base.getRed() * light), (int) (base.getGreen() * light),
+                                     (int) (base.getBlue() * light));
+        }
+        return colors;
+    }
+    
+    public void update(float dt, TimeSystem time, Camera camera, int viewWidth, int viewHeight) {
+        // Roll new weather every half day
+        int period = time.getDay() * 2 + (time.getTimeOfDay() >= 0.5f ? 1 : 0);
+        if (period != weatherPeriod) {
+            weatherPeriod = period;
+            float roll = random.nextFloat();
+            Weather next = roll < 0.5f ? Weather.CLEAR : roll < 0.8f ? Weather.RAIN : Weather.SNOW;
+            if (next != Weather.CLEAR) {
+                weather = next;
+            }
+            targetIntensity = next == Weather.CLEAR ? 0 : 0.3f + random.nextFloat() * 0.7f;
+            wind = (random.nextFloat() - 0.5f) * 120f;
+        }
+        
+        float step = FADE_SPEED * dt;
+        if (intensity < targetIntensity) {
+            intensity = Math.min(targetIntensity, intensity + step);
+        } else {
+            intensity = Math.max(targetIntensity, intensity - step);
+        }
+        
+        int left = camera.getX();
+        int right = left + viewWidth;
+        int top = camera.getY();
+        int bottom = top + viewHeight;
+        
+        // Move drops; remove by swapping the last live drop into the hole
+        for (int i = 0; i < count; ) {
+            x[i] += velocityX[i] * dt;
+            y[i] += velocityY[i] * dt;
+            int column = (int) x[i] / World.TILE_SIZE;
+            boolean hit = column < 0 || column >= world.getWorldWidth() ||
+                          y[i] >= world.getSurfaceHeight(column) * World.TILE_SIZE;
+            if (hit || y[i] > bottom || x[i] < left || x[i] >= right) {
+                count--;
+                x[i] = x[count];
+                y[i] = y[count];
+                velocityX[i] = velocityX[count];
+                velocityY[i] = velocityY[count];
+            } else {
+                i++;
+            }
+        }
+        
+        // Spawn across the camera's horizontal range, just above the top of the view
+        spawnCarry += intensity * (weather == Weather.RAIN ? RAIN_RATE : SNOW_RATE) * dt;
+        int spawn = (int) spawnCarry;
+        spawnCarry -= spawn;
+        for (int n = 0; n < spawn && count < CAPACITY; n++) {
+            float spawnX = left + random.nextFloat() * viewWidth;
+            float spawnY = top - random.nextFloat() * 32;
+            int column = (int) spawnX / World.TILE_SIZE;
+            if (column < 0 || column >= world.getWorldWidth() ||
+                spawnY >= world.getSurfaceHeight(column) * World.TILE_SIZE) {
+                continue; // Column is underground at the top of the view
+            }
+            x[count] = spawnX;
+            y[count] = spawnY;
+            if (weather == Weather.RAIN) {
+                velocityX[count] = wind;
+                velocityY[count] = 540 + random.nextFloat() * 180;
+            } else {
+                velocityX[count] = wind * 0.5f + (random.nextFloat() - 0.5f) * 60;
+                velocityY[count] = 60 + random.nextFloat() * 60;
+            }
+            count++;
+        }
+    }
+    
+    public Weather getWeather() { return intensity > 0 ? weather : Weather.CLEAR; }
+    public int getDropCount() { return count; }
+    
+    @Override
+    public int getDrawLayer() { return DrawList.LAYER_EFFECTS; }
+    
+    @Override
+    public boolean intersects(int left, int top, int right, int bottom) {
+        return count > 0;
+    }
+    
+    @Override
+    public void draw(Graphics2D g2d, Camera camera, LightingSystem lighting, float ambientLight) {
+        // Opaque one-colour rectangles: each is a plain fill, no per-pixel blending or overlay blit
+        float light = Math.min(1.0f, Math.max(0.25f, ambientLight));
+        boolean rain = weather == Weather.RAIN;
+        g2d.setColor((rain ? RAIN_COLORS : SNOW_COLORS)[Math.round(light * LIGHT_STEPS)]);
+        int width = rain ? 1 : 2;
+        int height = rain ? RAIN_LENGTH : 2;
+        
+        int cameraX = camera.getX();
+        int cameraY = camera.getY();
+        int n = count; // Snapshot; the game thread may be adding drops
+        for (int i = 0; i < n; i++) {
+            g2d.fillRect((int) x[i] - cameraX, (int) y[i] - cameraY, width, height);
+        }
+    }
+}
+
+class DamageIndicator implements WorldDrawable {
+    private int x;
+    private float y;
+    private int damage;
+    private volatile float age = 0; // Seconds, advanced by update so it follows simulation time
+    private static final float DURATION = 2.0f;
+    private static final float RISE_SPEED = 60f; // Pixels per second
+    private static final BitmapFont FONT = BitmapFont.HUD_LARGE_RED;
+    
+    private final char[] text; // "-<damage>", built once
+    
+    public DamageIndicator(int x, int y, int damage) {
+        this.x = x;
+        this.y = y;
+        this.damage = damage;
+        this.text = ("-" + damage).toCharArray();
+    }
+    
+    public void update(float dt) {
+        y -= RISE_SPEED * dt;
+        age += dt;
+    }
+    
+    @Override
+    public int getDrawLayer() { return DrawList.LAYER_INDICATORS; }
+    
+    @Override
+    public boolean intersects(int left, int top, int right, int bottom) {
+        // Text is drawn from its baseline, allow room for a few digits above it
+        return x < right && x + 40 > left && y - 16 < bottom && y + 4 > top;
+    }
+    
+    @Override
+    public void draw(Graphics2D g2d, Camera camera, LightingSystem lighting, float ambientLight) {
+        float age = this.age;
+        if (age > DURATION) return;
+        
+        float alpha = 1.0f - age / DURATION;
+        FONT.drawFaded(g2d, text, 0, text.length, x - camera.getX(), (int) y - camera.getY(), (int) (255 * alpha));
+    }
+    
+    public boolean isExpired() {
+        return age > DURATION;
+    }
+}
+
+class Enemy implements WorldDrawable {
+    private float x, y;
+    private float velocityX, velocityY;
+    private int width, height;
+    private int health;
+    private boolean onGround;
+    private World world;
+    private Player target;
+    private AIState state;
+    private final Random random;             // Simulation RNG shared with the game, for replays
+    private float attackCooldown = 0;        // Seconds until the next attack is allowed
+    private static final float ATTACK_COOLDOWN = 2.0f;
+    
+    enum AIState { WANDER, CHASE, ATTACK }
+    
+    // Physics in pixels per second (squared for gravity)
+    private static final float GRAVITY = 1080f;
+    private static final float MOVE_SPEED = 90f;
+    private static final float JUMP_STRENGTH = -480f;
+    private static final float WANDER_START_RATE = 0.6f; // Average direction picks per second
+    private static final float WANDER_STOP_RATE = 0.3f;
+    private static final int DAMAGE = 20;
+    private static final float CHASE_RANGE = 80.0f;
+    private static final float ATTACK_RANGE = 25.0f;
+    private static final int GLOW_LEVEL = 7;
+    
+    private int glowLevel; // Dynamic light this enemy gives off (0 = none)
+    
+    public Enemy(float startX, float startY, World world, Player target, Random random) {
+        this.x = startX;
+        this.y = startY;
+        this.world = world;
+        this.target = target;
+        this.width = 16;
+        this.height = 20;
+        this.health = 50;
+        this.velocityX = 0;
+        this.velocityY = 0;
+        this.onGround = false;
+        this.state = AIState.WANDER;
+        this.random = random;
+        this.glowLevel = random.nextFloat() < 0.3f ? GLOW_LEVEL : 0; // Some enemies glow in the dark
+    }
+    
+    public void update(float dt) {
+        updateAI(dt);
+        applyPhysics(dt);
+        
+        attackCooldown = Math.max(0, attackCooldown - dt);
+        if (isCollidingWithPlayer() && canAttack()) {
+            target.takeDamage(DAMAGE);
+            attackCooldown = ATTACK_COOLDOWN;
+        }
+    }
+    
+    private void updateAI(float dt) {
+        float distToPlayer = distance(x, y, target.getX(), target.getY());
+        
+        switch (state) {
+            case WANDER:
+                if (distToPlayer < CHASE_RANGE) {
+                    state = AIState.CHASE;
+                } else {
+                    if (random.nextFloat() < WANDER_START_RATE * dt) {
+                        velocityX = random.nextBoolean() ? -MOVE_SPEED : MOVE_SPEED;
+                    }
+                    if (random.nextFloat() < WANDER_STOP_RATE * dt) {
+                        velocityX = 0;
+                    }
+                }
+                break;
+                
+            case CHASE:
+                if (distToPlayer > CHASE_RANGE * 1.5) {
+                    state = AIState.WANDER;
+                    velocityX = 0;
+                } else if (distToPlayer < ATTACK_RANGE) {
+                    state = AIState.ATTACK;
+                    velocityX = 0;
+                } else {
+                    if (target.getX() < x) {
+                        velocityX = -MOVE_SPEED;
+                    } else {
+                        velocityX = MOVE_SPEED;
+                    }
+                    
+                    if (checkWallInDirection(velocityX > 0 ? 1 : -1) && onGround) {
+                        velocityY = JUMP_STRENGTH;
+                    }
+                }
+                break;
+                
+            case ATTACK:
+                if (distToPlayer > ATTACK_RANGE) {
+                    state = AIState.CHASE;
+                } else {
+                    velocityX = 0;
+                }
+                break;
+        }
+    }
+    
+    private boolean checkWallInDirection(int dir) {
+        int checkX = (int) ((x + width * dir) / World.TILE_SIZE);
+        int checkY = (int) (y / World.TILE_SIZE);
+        return world.isSolid(checkX, checkY);
+    }
+    
+    private void applyPhysics(float dt) {
+        // Gravity also applies on the ground: the small downward move is what keeps onGround
+        // set on every tick, whatever the tick rate. Moving by the average velocity over the
+        // tick makes jump height independent of dt.
+        float startVelocityY = velocityY;
+        velocityY += GRAVITY * dt;
+        
+        moveHorizontal(velocityX * dt);
+        moveVertical((startVelocityY + velocityY) * 0.5f * dt);
+    }
+    
+    // Moves in steps of at most MAX_STEP so low tick rates cannot skip through a tile
+    private void moveHorizontal(float deltaX) {
+        int steps = (int) Math.ceil(Math.abs(deltaX) / World.MAX_STEP);
+        for (int i = 0; i < steps; i++) {
+            float step = deltaX / steps;
+            x += step;
+            if (checkCollision()) {
+                x -= step;
+                return;
+            }
+        }
+    }
+    
+    private void moveVertical(float deltaY) {
+        int steps = (int) Math.ceil(Math.abs(deltaY) / World.MAX_STEP);
+        onGround = false;
+        for (int i = 0; i < steps; i++) {
+            float step = deltaY / steps;
+            y += step;
+            if (checkCollision()) {
+                y -= step;
+                if (deltaY > 0) {
+                    onGround = true;
+                }
+                velocityY = 0;
+                return;
+            }
+        }
+    }
+    
+    private boolean checkCollision() {
+        int left = (int) (x / World.TILE_SIZE);
+        int right = (int) ((x + width) / World.TILE_SIZE);
+        int top = (int) (y / World.TILE_SIZE);
+        int bottom = (int) ((y + height) / World.TILE_SIZE);
+        
+        return world.isSolid(left, top) || world.isSolid(right, top) ||
+               world.isSolid(left, bottom) || world.isSolid(right, bottom);
+    }
+    
+    private boolean isCollidingWithPlayer() {
+        return x < target.getX() + 12 && x + width > target.getX() &&
+               y < target.getY() + 24 && y + height > target.getY();
+    }
+    
+    private boolean canAttack() {
+        return attackCooldown <= 0;
+    }
+    
+    private float distance(float x1, float y1, float x2, float y2) {
+        return (float) Math.sqrt((x2 - x1) * (x2 - x1) + (y2 - y1) * (y2 - y1));
+    }
+    
+    @Override
+    public int getDrawLayer() { return DrawList.LAYER_ENEMIES; }
+    
+    @Override
+    public boolean intersects(int left, int top, int right, int bottom) {
+        // Include the health bar drawn above and slightly left of the body
+        return x - 2 < right && x + width + 1 > left && y - 8 < bottom && y + height + 1 > top;
+    }
+    
+    @Override
+    public void draw(Graphics2D g2d, Camera camera, LightingSystem lighting, float ambientLight) {
+        int drawX = (int) (x - camera.getX());
+        int drawY = (int) (y - camera.getY());
+        
+        // Get lighting for enemy position
+        int lightLevel = lighting.getLightLevel((int) (x / World.TILE_SIZE), (int) (y / World.TILE_SIZE));
+        Color enemyColor = lighting.applyLighting(Color.RED, lightLevel, ambientLight);
         
         // Enemy body
         g2d.setColor(enemyColor);
@@ -793,289 +1688,2126 @@ class Enemy {
     
     public int getX() { return (int) x; }
     public int getY() { return (int) y; }
+    public int getCenterX() { return (int) (x + width / 2f); }
+    public int getCenterY() { return (int) (y + height / 2f); }
+    public int getGlowLevel() { return glowLevel; }
 }
 
-// NEW: Crafting Recipe System
-class CraftingRecipe {
-    private String name;
-    private TileType result;
-    private int resultQuantity;
-    private TileType[] ingredients;
-    private int[] ingredientQuantities;
-    private boolean requiresWorkbench;
+// NEW: Lock-free single-producer/single-consumer ring of input commands. The EDT offers
+// commands packed into one long each; the game thread drains them at the start of a tick,
+// so world, inventory and player state are only ever changed on the game thread.
+class CommandQueue {
+    static final int KEY_DOWN = 1, KEY_UP = 2, SELECT_SLOT = 3, BREAK_BLOCK = 4, PLACE_BLOCK = 5, CRAFT = 6;
+    static final int KEY_LEFT = 0, KEY_RIGHT = 1, KEY_JUMP = 2;
+    static final long EMPTY = -1;
+    
+    private static final int CAPACITY = 1024; // Power of two
+    private final long[] ring = new long[CAPACITY];
+    private final AtomicLong head = new AtomicLong(); // Next slot to read, written by the consumer
+    private final AtomicLong tail = new AtomicLong(); // Next slot to write, written by the producer
+    private long cachedHead = 0;                      // Producer's last view of head
+    
+    // Producer side; returns false (command dropped) if the game thread has fallen far behind
+    public boolean offer(int type, int a, int b) {
+        long t = tail.get();
+        if (t - cachedHead >= CAPACITY) {
+            cachedHead = head.get();
+            if (t - cachedHead >= CAPACITY) {
+                return false;
+            }
+        }
+        ring[(int) t & (CAPACITY - 1)] = ((long) type << 48) | ((long) (a & 0xFFFFFF) << 24) | (b & 0xFFFFFF);
+        tail.lazySet(t + 1); // Publishes the slot written above
+        return true;
+    }
     
-    public CraftingRecipe(String name, TileType result, int resultQuantity,
-                          TileType[] ingredients, int[] ingredientQuantities, 
-                          boolean requiresWorkbench) {
-        this.name = name;
-        this.result = result;
-        this.resultQuantity = resultQuantity;
-        this.ingredients = ingredients;
-        this.ingredientQuantities = ingredientQuantities;
-        this.requiresWorkbench = requiresWorkbench;
+    // Consumer side; EMPTY when there is nothing left
+    public long poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return EMPTY;
+        }
+        long command = ring[(int) h & (CAPACITY - 1)];
+        head.lazySet(h + 1);
+        return command;
+    }
+    
+    static int type(long command) { return (int) (command >>> 48); }
+    static int argA(long command) { return (int) (command >>> 24) & 0xFFFFFF; }
+    static int argB(long command) { return (int) command & 0xFFFFFF; }
+}
+
+// NEW: Compact binary recording of a session: the world seed, the tick rate and every input
+// command with the tick it was applied on, ended by the tick count and a state checksum.
+// Replaying it headless reproduces the session exactly (see CraftingGame --replay).
+class InputRecording {
+    private static final int MAGIC = 0x43475245; // "CGRE"
+    private static final int VERSION = 1;
+    private static final int END = 0;            // Record type that closes the stream
+    
+    // Writing
+    private DataOutputStream out;
+    private long lastTick = 0;
+    
+    // Read back by load()
+    long seed;
+    int tickRate;
+    long totalTicks;
+    long checksum;
+    long[] commandTicks = new long[0];
+    long[] commands = new long[0];
+    int commandCount = 0;
+    
+    public static InputRecording create(File file, long seed, int tickRate) throws IOException {
+        InputRecording recording = new InputRecording();
+        recording.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        recording.out.writeInt(MAGIC);
+        recording.out.writeByte(VERSION);
+        recording.out.writeLong(seed);
+        recording.out.writeShort(tickRate);
+        return recording;
+    }
+    
+    // Each command costs a few bytes: tick delta, type and both arguments as varints
+    public void record(long tick, long command) throws IOException {
+        writeVarint(tick - lastTick);
+        lastTick = tick;
+        out.writeByte(CommandQueue.type(command));
+        writeVarint(CommandQueue.argA(command));
+        writeVarint(CommandQueue.argB(command));
+    }
+    
+    public void finish(long totalTicks, long checksum) throws IOException {
+        writeVarint(totalTicks - lastTick);
+        out.writeByte(END);
+        out.writeLong(checksum);
+        out.close();
+    }
+    
+    public static InputRecording load(File file) throws IOException {
+        InputRecording recording = new InputRecording();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("Not a recording: " + file.getPath());
+            }
+            recording.seed = in.readLong();
+            recording.tickRate = in.readShort();
+            
+            long tick = 0;
+            while (true) {
+                tick += readVarint(in);
+                int type = in.readUnsignedByte();
+                if (type == END) {
+                    recording.totalTicks = tick;
+                    recording.checksum = in.readLong();
+                    return recording;
+                }
+                int a = (int) readVarint(in);
+                int b = (int) readVarint(in);
+                recording.add(tick, ((long) type << 48) | ((long) a << 24) | b);
+            }
+        }
+    }
+    
+    private void add(long tick, long command) {
+        if (commandCount == commands.length) {
+            commands = java.util.Arrays.copyOf(commands, Math.max(64, commandCount * 2));
+            commandTicks = java.util.Arrays.copyOf(commandTicks, commands.length);
+        }
+        commandTicks[commandCount] = tick;
+        commands[commandCount++] = command;
+    }
+    
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+    
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
+
+// NEW: Times the phases of a tick or a frame with System.nanoTime. begin() starts a sample,
+// mark(section) charges the time since the previous mark to that section and end() closes the
+// sample. Keeps running totals plus the last WINDOW samples for rolling percentiles.
+class Profiler {
+    // Simulation tick sections
+    static final int INPUT = 0, TIME = 1, LIGHTING = 2, SPAWNING = 3, PLAYER = 4, ENEMIES = 5,
+                     DYNAMIC_LIGHTS = 6, PARTICLES = 7, WEATHER = 8, INDICATORS = 9;
+    static final String[] TICK_NAMES = {
+        "input", "time", "lighting", "spawning", "player", "enemies",
+        "dynamic lights", "particles", "weather", "indicators"
+    };
+    
+    // Frame sections
+    static final int FRAME_SKY = 0, FRAME_PARALLAX = 1, FRAME_CELESTIAL = 2, FRAME_WORLD = 3,
+                     FRAME_ENTITIES = 4, FRAME_SCALE = 5, FRAME_HUD = 6;
+    static final String[] FRAME_NAMES = {
+        "sky", "parallax", "sun/moon/clouds", "drawWorld", "entities", "upscale", "hud"
+    };
+    
+    static final int WINDOW = 256; // Samples kept for percentiles, power of two
+    static final int P50 = 0, P95 = 1, P99 = 2, MAX = 3;
+    
+    private final String[] names;
+    private final long[] totals;
+    private final long[] current;   // Time per section in the open sample
+    private final long[][] window;  // [section][sample]; the extra last row is whole samples
+    private final long[] sorted = new long[WINDOW]; // Scratch for getPercentiles
+    private volatile long samples = 0;
+    private long sampleStart;
+    private long last;
+    
+    public Profiler(String[] names) {
+        this.names = names;
+        totals = new long[names.length + 1];
+        current = new long[names.length];
+        window = new long[names.length + 1][WINDOW];
+    }
+    
+    public void begin() {
+        last = System.nanoTime();
+        sampleStart = last;
+    }
+    
+    public void mark(int section) {
+        long now = System.nanoTime();
+        current[section] += now - last;
+        last = now;
+    }
+    
+    public void end() {
+        int slot = (int) (samples & (WINDOW - 1));
+        for (int i = 0; i < names.length; i++) {
+            window[i][slot] = current[i];
+            totals[i] += current[i];
+            current[i] = 0;
+        }
+        window[names.length][slot] = last - sampleStart;
+        totals[names.length] += last - sampleStart;
+        samples++;
+    }
+    
+    public String[] getNames() { return names; }
+    public long getSamples() { return samples; }
+    public long getLastSampleNanos() { return last - sampleStart; }
+    public long getTotalNanos(int section) { return totals[section]; }
+    
+    // p50/p95/p99/max in nanoseconds of the recent samples of a section (names.length for
+    // whole samples). May run on another thread than the one profiling: the window is only
+    // read, so at worst a sample being written is seen half updated.
+    public void getPercentiles(int section, long[] stats) {
+        int n = (int) Math.min(samples, WINDOW);
+        if (n == 0) {
+            java.util.Arrays.fill(stats, 0);
+            return;
+        }
+        System.arraycopy(window[section], 0, sorted, 0, n);
+        java.util.Arrays.sort(sorted, 0, n);
+        stats[P50] = sorted[(n - 1) * 50 / 100];
+        stats[P95] = sorted[(n - 1) * 95 / 100];
+        stats[P99] = sorted[(n - 1) * 99 / 100];
+        stats[MAX] = sorted[n - 1];
+    }
+    
+    public void reset() {
+        java.util.Arrays.fill(totals, 0);
+        samples = 0;
+    }
+}
+
+// NEW: F3 debug overlay: FPS, TPS, entity counts, allocation per frame and per tick, and the
+// rolling p50/p95/p99/max of every tick and frame section. Numbers are refreshed twice a
+// second and drawn with BitmapFont, so the overlay itself allocates nothing per frame.
+class ProfilerOverlay {
+    private static final long REFRESH_NANOS = 500000000L;
+    private static final int ROW_HEIGHT = 13;
+    private static final int NAME_WIDTH = 110;
+    private static final int COLUMN_WIDTH = 48;
+    private static final String[] COLUMNS = {"p50", "p95", "p99", "max"};
+    private static final Color BACKGROUND = new Color(0, 0, 0, 170);
+    
+    private final Profiler tickProfiler;
+    private final Profiler frameProfiler;
+    private final com.sun.management.ThreadMXBean allocations;
+    
+    // Snapshot shown until the next refresh, times in microseconds
+    private final long[][] tickStats;
+    private final long[][] frameStats;
+    private final long[] scratch = new long[4];
+    private int fps, tps;
+    private long bytesPerFrame = -1, bytesPerTick = -1;
+    
+    private long lastRefresh = 0;
+    private long lastFrames, lastTicks;
+    private long lastFrameBytes, lastTickBytes;
+    
+    public ProfilerOverlay(Profiler tickProfiler, Profiler frameProfiler) {
+        this.tickProfiler = tickProfiler;
+        this.frameProfiler = frameProfiler;
+        tickStats = new long[tickProfiler.getNames().length + 1][4];
+        frameStats = new long[frameProfiler.getNames().length + 1][4];
+        java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        allocations = threads instanceof com.sun.management.ThreadMXBean ?
+                      (com.sun.management.ThreadMXBean) threads : null;
+    }
+    
+    // Called on the EDT once per frame while the overlay is shown
+    public void refresh(Thread gameThread) {
+        long now = System.nanoTime();
+        long elapsed = now - lastRefresh;
+        if (elapsed < REFRESH_NANOS) {
+            return;
+        }
+        long frames = frameProfiler.getSamples();
+        long ticks = tickProfiler.getSamples();
+        long frameBytes = allocatedBytes(Thread.currentThread());
+        long tickBytes = allocatedBytes(gameThread);
+        if (lastRefresh != 0) {
+            fps = (int) Math.round((frames - lastFrames) * 1e9 / elapsed);
+            tps = (int) Math.round((ticks - lastTicks) * 1e9 / elapsed);
+            bytesPerFrame = frameBytes >= 0 && frames > lastFrames ?
+                            (frameBytes - lastFrameBytes) / (frames - lastFrames) : -1;
+            bytesPerTick = tickBytes >= 0 && ticks > lastTicks ?
+                           (tickBytes - lastTickBytes) / (ticks - lastTicks) : -1;
+        }
+        lastRefresh = now;
+        lastFrames = frames;
+        lastTicks = ticks;
+        lastFrameBytes = frameBytes;
+        lastTickBytes = tickBytes;
+        
+        snapshot(tickProfiler, tickStats);
+        snapshot(frameProfiler, frameStats);
+    }
+    
+    private void snapshot(Profiler profiler, long[][] stats) {
+        for (int section = 0; section < stats.length; section++) {
+            profiler.getPercentiles(section, scratch);
+            for (int i = 0; i < 4; i++) {
+                stats[section][i] = scratch[i] / 1000;
+            }
+        }
+    }
+    
+    private long allocatedBytes(Thread thread) {
+        if (allocations == null || thread == null) {
+            return -1;
+        }
+        return allocations.getThreadAllocatedBytes(thread.getId());
+    }
+    
+    public void draw(Graphics2D g2d, int x, int y, int enemies, int particles, int drops, int indicators,
+                     String quality) {
+        BitmapFont font = BitmapFont.HUD_SMALL;
+        int rows = 6 + tickStats.length + frameStats.length;
+        g2d.setColor(BACKGROUND);
+        g2d.fillRect(x, y, NAME_WIDTH + COLUMN_WIDTH * 4 + 10, rows * ROW_HEIGHT + 8);
+        x += 5;
+        y += ROW_HEIGHT;
+        
+        int end = font.drawString(g2d, "FPS ", x, y);
+        end = font.drawInt(g2d, fps, end, y);
+        end = font.drawString(g2d, "   TPS ", end, y);
+        font.drawInt(g2d, tps, end, y);
+        y += ROW_HEIGHT;
+        
+        end = font.drawString(g2d, "Enemies ", x, y);
+        end = font.drawInt(g2d, enemies, end, y);
+        end = font.drawString(g2d, "  Particles ", end, y);
+        end = font.drawInt(g2d, particles, end, y);
+        end = font.drawString(g2d, "  Drops ", end, y);
+        end = font.drawInt(g2d, drops, end, y);
+        end = font.drawString(g2d, "  Text ", end, y);
+        font.drawInt(g2d, indicators, end, y);
+        y += ROW_HEIGHT;
+        
+        end = font.drawString(g2d, "Alloc B/frame ", x, y);
+        end = drawBytes(g2d, font, bytesPerFrame, end, y);
+        end = font.drawString(g2d, "  B/tick ", end, y);
+        drawBytes(g2d, font, bytesPerTick, end, y);
+        y += ROW_HEIGHT;
+        
+        end = font.drawString(g2d, "Quality: ", x, y);
+        font.drawString(g2d, quality, end, y);
+        y += ROW_HEIGHT;
+        
+        y = drawTable(g2d, font, "Tick (us)", tickProfiler.getNames(), tickStats, x, y);
+        drawTable(g2d, font, "Frame (us)", frameProfiler.getNames(), frameStats, x, y);
+    }
+    
+    private int drawBytes(Graphics2D g2d, BitmapFont font, long bytes, int x, int y) {
+        if (bytes < 0) {
+            return font.drawString(g2d, "n/a", x, y);
+        }
+        return font.drawInt(g2d, (int) Math.min(bytes, Integer.MAX_VALUE), x, y);
+    }
+    
+    private int drawTable(Graphics2D g2d, BitmapFont font, String title, String[] names, long[][] stats,
+                          int x, int y) {
+        BitmapFont.HUD_CYAN.drawString(g2d, title, x, y);
+        for (int i = 0; i < COLUMNS.length; i++) {
+            BitmapFont.HUD_CYAN.drawString(g2d, COLUMNS[i], x + NAME_WIDTH + i * COLUMN_WIDTH, y);
+        }
+        y += ROW_HEIGHT;
+        for (int section = 0; section < stats.length; section++) {
+            font.drawString(g2d, section < names.length ? names[section] : "total", x, y);
+            for (int i = 0; i < 4; i++) {
+                font.drawInt(g2d, (int) Math.min(stats[section][i], Integer.MAX_VALUE),
+                             x + NAME_WIDTH + i * COLUMN_WIDTH, y);
+            }
+            y += ROW_HEIGHT;
+        }
+        return y;
+    }
+}
+
+// NEW: Holds the frame budget by trading visual quality for time. Every WINDOW frames it takes
+// the 90th percentile frame cost: over budget steps quality down one level, under HEADROOM of
+// the budget for several windows in a row steps it back up one level. The gap between the two
+// thresholds and the slower step-up keep it from oscillating, and a step up that is undone
+// straight away doubles the wait before the next one.
+class QualityGovernor {
+    // Each level keeps the cuts of the levels before it
+    static final int FULL = 0, LAMP_GLOW = 1, SHADOWS = 2, STARS = 3, PARALLAX = 4,
+                     LIGHT_RATE = 5, SCALE_75 = 6, SCALE_50 = 7;
+    static final String[] LEVEL_NAMES = {
+        "full", "single lamp glow layer", "no shadows", "half the stars", "near parallax layers only",
+        "dynamic lights every 2nd tick", "75% render scale", "50% render scale"
+    };
+    
+    private static final int WINDOW = 30;          // Frames per decision, half a second at 60 FPS
+    private static final double HEADROOM = 0.6;    // Step up only below 60% of the budget
+    private static final int MIN_UP_WINDOWS = 4;   // Windows of headroom needed to step up
+    private static final int MAX_UP_WINDOWS = 64;
+    
+    private final long budgetNanos;
+    private final long[] costs = new long[WINDOW];
+    private final long[] sorted = new long[WINDOW];
+    private int frames = 0;
+    private int goodWindows = 0;
+    private int upWindows = MIN_UP_WINDOWS;
+    private boolean justSteppedUp = false;
+    private volatile int level = FULL;
+    private volatile boolean enabled = true;
+    
+    public QualityGovernor(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+    
+    // Called on the EDT after each frame with what it cost: render time, plus tick time that made it late
+    public void frameFinished(long costNanos) {
+        if (!enabled) {
+            return;
+        }
+        costs[frames++] = costNanos;
+        if (frames < WINDOW) {
+            return;
+        }
+        frames = 0;
+        System.arraycopy(costs, 0, sorted, 0, WINDOW);
+        java.util.Arrays.sort(sorted);
+        long p90 = sorted[WINDOW * 9 / 10];
+        
+        if (p90 > budgetNanos) {
+            if (justSteppedUp) {
+                upWindows = Math.min(MAX_UP_WINDOWS, upWindows * 2); // That level didn't fit after all
+            }
+            justSteppedUp = false;
+            goodWindows = 0;
+            if (level < SCALE_50) {
+                setLevel(level + 1);
+            }
+        } else {
+            if (justSteppedUp) {
+                upWindows = Math.max(MIN_UP_WINDOWS, upWindows / 2); // The last step up held
+                justSteppedUp = false;
+            }
+            if (p90 < budgetNanos * HEADROOM) {
+                if (++goodWindows >= upWindows && level > FULL) {
+                    goodWindows = 0;
+                    justSteppedUp = true;
+                    setLevel(level - 1);
+                }
+            } else {
+                goodWindows = 0; // Inside the hysteresis band: hold
+            }
+        }
+    }
+    
+    private void setLevel(int newLevel) {
+        level = newLevel;
+        System.out.println("Quality: " + LEVEL_NAMES[newLevel]);
+    }
+    
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        frames = 0;
+        goodWindows = 0;
+        justSteppedUp = false;
+        upWindows = MIN_UP_WINDOWS;
+        if (!enabled && level != FULL) {
+            setLevel(FULL);
+        }
+        System.out.println("Quality governor: " + (enabled ? "ON" : "OFF"));
+    }
+    
+    public boolean isEnabled() { return enabled; }
+    public int getLevel() { return level; }
+    public String getLevelName() { return LEVEL_NAMES[level]; }
+    
+    public int getLampGlowLayers() { return level >= LAMP_GLOW ? 1 : 3; }
+    public boolean drawShadows() { return level < SHADOWS; }
+    public int getStarStep() { return level >= STARS ? 2 : 1; }
+    public int getFirstParallaxLayer(int layers) { return level >= PARALLAX ? layers / 2 : 0; }
+    public int getDynamicLightInterval() { return level >= LIGHT_RATE ? 2 : 1; }
+    
+    public float getRenderScale() {
+        return level >= SCALE_50 ? 0.5f : level >= SCALE_75 ? 0.75f : 1.0f;
+    }
+}
+
+// NEW: Fixed-bucket log-linear histogram of durations in microseconds. Below 64 us every
+// microsecond has its own bucket; above that each power of two is split into 64 linear buckets,
+// so a bucket is never wider than 1/64 of its values (0.26 ms around a 16.7 ms frame).
+// record() only bumps counters: no allocation and no locks, cheap enough for every tick and frame.
+// Not thread-safe: only the thread that records into a histogram should read it while it runs.
+class TimeHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 32; // 2^32 us is over an hour; longer goes in the last bucket
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB_COUNT;
+    
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long sum = 0; // Microseconds
+    private long max = 0;
+    
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts[bucketOf(micros)]++;
+        count++;
+        sum += micros;
+        if (micros > max) {
+            max = micros;
+        }
+    }
+    
+    static int bucketOf(long micros) {
+        if (micros < SUB_COUNT) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int group = exponent - SUB_BITS + 1;
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) - SUB_COUNT;
+        return group * SUB_COUNT + sub;
+    }
+    
+    // Smallest value that lands in a bucket; the bucket ends just before the next one's
+    static long lowerBound(int bucket) {
+        int group = bucket >> SUB_BITS;
+        int sub = bucket & (SUB_COUNT - 1);
+        return group == 0 ? sub : (long) (SUB_COUNT + sub) << (group - 1);
+    }
+    
+    static long upperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+    }
+    
+    public long getCount() { return count; }
+    public long getMax() { return max; }
+    public double getMean() { return count == 0 ? 0 : (double) sum / count; }
+    
+    // Value at the given percentile (0-100) in microseconds, as the top of its bucket
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+    
+    public void copyFrom(TimeHistogram other) {
+        System.arraycopy(other.counts, 0, counts, 0, BUCKETS);
+        count = other.count;
+        sum = other.sum;
+        max = other.max;
+    }
+    
+    // this = later - earlier, for the samples recorded between two copies of one histogram.
+    // The exact max is lost, so it becomes the top of the highest non-empty bucket.
+    public void setDifference(TimeHistogram later, TimeHistogram earlier) {
+        count = later.count - earlier.count;
+        sum = later.sum - earlier.sum;
+        max = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = later.counts[i] - earlier.counts[i];
+            if (counts[i] > 0) {
+                max = Math.min(upperBound(i), later.max);
+            }
+        }
+    }
+    
+    // One CSV row per non-empty bucket: series,low_us,high_us,count
+    public void writeCsv(PrintWriter out, String series) {
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                out.println(series + "," + lowerBound(i) + "," + Math.min(upperBound(i), max) + "," + counts[i]);
+            }
+        }
+    }
+    
+    // e.g. "n=3600 mean=0.41 p50=0.38 p90=0.52 p99=1.21 p99.9=4.10 max=6.02 ms"
+    public String summary() {
+        return String.format("n=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f ms",
+                             count, getMean() / 1000, getPercentile(50) / 1000.0,
+                             getPercentile(90) / 1000.0, getPercentile(99) / 1000.0,
+                             getPercentile(99.9) / 1000.0, max / 1000.0);
+    }
+}
+
+// NEW: Writes the tick-time and frame-time histograms to captures/: the full bucket table as
+// CSV on request (F4) and on exit, and optionally one percentile row per minute of game time
+// (-Dgame.histogram.perMinute=true) to compare stutter between builds and world sizes
+class HistogramReport {
+    private static final File CAPTURE_DIR = new File("captures");
+    private static final String MINUTE_HEADER = "minute,series,count,mean_us,p50_us,p90_us,p99_us,p99.9_us,max_us";
+    
+    private final TimeHistogram tickTimes;
+    private final TimeHistogram frameTimes;
+    
+    // Per-minute rows: histograms as of the last row, and the difference since then.
+    // Tick rows are taken on the game thread and frame rows on the EDT, each by the thread that
+    // records that histogram, so neither reads counters while the other thread is bumping them
+    private PrintWriter minuteOut;
+    private final TimeHistogram lastTicks = new TimeHistogram();
+    private final TimeHistogram tickInterval = new TimeHistogram();
+    private volatile int minute = 0;
+    private final TimeHistogram lastFrames = new TimeHistogram();
+    private final TimeHistogram frameInterval = new TimeHistogram();
+    private int frameMinute = 0; // EDT only: last minute with a frame row
+    
+    // F4 dumps work the same way: each thread copies the histogram it records, and once both
+    // copies are taken a short-lived thread writes the file. The bits are the steps still to do
+    private static final int DUMP_TICKS = 1, DUMP_FRAMES = 2, DUMP_WRITING = 4;
+    private final AtomicInteger dumpState = new AtomicInteger();
+    private final TimeHistogram dumpTicks = new TimeHistogram();
+    private final TimeHistogram dumpFrames = new TimeHistogram();
+    
+    public HistogramReport(TimeHistogram tickTimes, TimeHistogram frameTimes) {
+        this.tickTimes = tickTimes;
+        this.frameTimes = frameTimes;
+    }
+    
+    public void startPerMinute() {
+        CAPTURE_DIR.mkdirs();
+        File file = new File(CAPTURE_DIR, "histogram-minutes-" + System.currentTimeMillis() + ".csv");
+        try {
+            minuteOut = new PrintWriter(new FileWriter(file));
+            minuteOut.println(MINUTE_HEADER);
+            minuteOut.flush();
+            System.out.println("Writing per-minute frame times to " + file.getPath());
+        } catch (IOException e) {
+            System.out.println("Failed to open " + file.getPath() + ": " + e.getMessage());
+        }
+    }
+    
+    // Called by the game thread after each minute of game time. The frame row for the same
+    // minute follows from the EDT's next frame (none when headless)
+    public void writeMinute() {
+        if (minuteOut == null) {
+            return;
+        }
+        tickInterval.setDifference(tickTimes, lastTicks);
+        lastTicks.copyFrom(tickTimes);
+        writeMinuteRow(minute + 1, "tick", tickInterval);
+        minute++;
+    }
+    
+    // Called by the game thread after each tick
+    public void tickFinished() {
+        if ((dumpState.get() & DUMP_TICKS) != 0) {
+            dumpTicks.copyFrom(tickTimes);
+            dumpCopied(DUMP_TICKS);
+        }
+    }
+    
+    // Called by the EDT after each frame
+    public void frameFinished() {
+        if ((dumpState.get() & DUMP_FRAMES) != 0) {
+            dumpFrames.copyFrom(frameTimes);
+            dumpCopied(DUMP_FRAMES);
+        }
+        int due = minute;
+        if (frameMinute == due || minuteOut == null) {
+            return;
+        }
+        frameMinute = due;
+        frameInterval.setDifference(frameTimes, lastFrames);
+        lastFrames.copyFrom(frameTimes);
+        writeMinuteRow(due, "frame", frameInterval);
+    }
+    
+    private synchronized void writeMinuteRow(int row, String series, TimeHistogram histogram) {
+        if (minuteOut == null) {
+            return;
+        }
+        minuteOut.println(row + "," + series + "," + histogram.getCount() + "," +
+                          Math.round(histogram.getMean()) + "," + histogram.getPercentile(50) + "," +
+                          histogram.getPercentile(90) + "," + histogram.getPercentile(99) + "," +
+                          histogram.getPercentile(99.9) + "," + histogram.getMax());
+        minuteOut.flush();
+    }
+    
+    // F4 on the EDT: ignored while an earlier dump is still being taken or written
+    public void requestDump() {
+        dumpState.compareAndSet(0, DUMP_TICKS | DUMP_FRAMES | DUMP_WRITING);
+    }
+    
+    private void dumpCopied(int step) {
+        if (dumpState.addAndGet(-step) != DUMP_WRITING) {
+            return; // The other thread has not copied its histogram yet
+        }
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write(dumpTicks, dumpFrames);
+                dumpState.set(0);
+            }
+        }, "histogram-dump");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    // On exit, once the game thread has stopped and no more frames are drawn
+    public void dump() {
+        write(tickTimes, frameTimes);
+    }
+    
+    // Print percentiles and write every bucket since startup to a new CSV file
+    private void write(TimeHistogram ticks, TimeHistogram frames) {
+        System.out.println("Tick time:      " + ticks.summary());
+        System.out.println("Frame interval: " + frames.summary());
+        
+        CAPTURE_DIR.mkdirs();
+        File file = new File(CAPTURE_DIR, "histogram-" + System.currentTimeMillis() + ".csv");
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println("series,low_us,high_us,count");
+            ticks.writeCsv(out, "tick");
+            frames.writeCsv(out, "frame");
+            System.out.println("Histograms saved to " + file.getPath());
+        } catch (IOException e) {
+            System.out.println("Failed to save histograms: " + e.getMessage());
+        }
+    }
+    
+    public synchronized void close() {
+        if (minuteOut != null) {
+            minuteOut.close();
+            minuteOut = null;
+        }
+    }
+}
+
+// NEW: Java Flight Recorder events, so slow frames in a recording can be matched to what the
+// game was doing. Loading the first event class bootstraps JFR, which takes a few hundred ms,
+// so no event is created until a recording has started the recorder (-XX:StartFlightRecording
+// or jcmd <pid> JFR.start); until then each call site costs one volatile read. The recorder
+// stays initialized after a recording stops, so every call site also checks its event's TYPE
+// and creates nothing unless a running recording has that event enabled.
+final class FlightEvents {
+    static boolean active() {
+        return FlightRecorder.isInitialized();
+    }
+}
+
+@Name("craftinggame.Tick")
+@Label("Game Tick")
+@Category({"Crafting Game", "Simulation"})
+@Description("One fixed-timestep simulation update")
+@StackTrace(false)
+class GameTickEvent extends Event {
+    static final EventType TYPE = EventType.getEventType(GameTickEvent.class);
+    
+    @Label("Tick") long tick;
+    @Label("Enemies") int enemies;
+    @Label("Particles") int particles;
+}
+
+@Name("craftinggame.Lighting")
+@Label("Lighting Recompute")
+@Category({"Crafting Game", "Simulation"})
+@Description("Full rebuild of the world light map")
+class LightingEvent extends Event {
+    static final EventType TYPE = EventType.getEventType(LightingEvent.class);
+    
+    @Label("Sunlight Level") int sunlight;
+    @Label("Cells Touched") int cellsTouched;
+    @Label("Cells Changed") int cellsChanged;
+    @Label("Chunks Changed") int chunksChanged;
+}
+
+@Name("craftinggame.ChunkRender")
+@Label("Chunk Render")
+@Category({"Crafting Game", "Rendering"})
+@Description("A chunk image rendered on a cache miss or ahead of time by the prefetcher")
+class ChunkRenderEvent extends Event {
+    static final EventType TYPE = EventType.getEventType(ChunkRenderEvent.class);
+    
+    @Label("Chunk X") int chunkX;
+    @Label("Chunk Y") int chunkY;
+    @Label("Cache Miss") @Description("Rendered on demand while drawing, not prefetched") boolean cacheMiss;
+}
+
+@Name("craftinggame.WorldGeneration")
+@Label("World Generation Phase")
+@Category({"Crafting Game", "World"})
+class WorldGenerationEvent extends Event {
+    static final EventType TYPE = EventType.getEventType(WorldGenerationEvent.class);
+    
+    @Label("Phase") String phase;
+    @Label("Seed") long seed;
+}
+
+@Name("craftinggame.Craft")
+@Label("Crafting")
+@Category({"Crafting Game", "Gameplay"})
+class CraftEvent extends Event {
+    static final EventType TYPE = EventType.getEventType(CraftEvent.class);
+    
+    @Label("Recipe") String recipe;
+    @Label("Crafted") @Description("False when ingredients or a workbench were missing") boolean crafted;
+}
+
+// NEW: Crafting Recipe System
+class CraftingRecipe {
+    private String name;
+    private TileType result;
+    private int resultQuantity;
+    private TileType[] ingredients;
+    private int[] ingredientQuantities;
+    private boolean requiresWorkbench;
+    private String ingredientsText; // Built once on first use, recipes never change
+    
+    public CraftingRecipe(String name, TileType result, int resultQuantity,
+                          TileType[] ingredients, int[] ingredientQuantities, 
+                          boolean requiresWorkbench) {
+        this.name = name;
+        this.result = result;
+        this.resultQuantity = resultQuantity;
+        this.ingredients = ingredients;
+        this.ingredientQuantities = ingredientQuantities;
+        this.requiresWorkbench = requiresWorkbench;
+    }
+    
+    public boolean canCraft(Player player) {
+        for (int i = 0; i < ingredients.length; i++) {
+            if (!player.hasItem(ingredients[i], ingredientQuantities[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public void craft(Player player) {
+        // Remove ingredients
+        for (int i = 0; i < ingredients.length; i++) {
+            player.removeItem(ingredients[i], ingredientQuantities[i]);
+        }
+        
+        // Add result
+        player.addItem(result, resultQuantity);
+    }
+    
+    public String getName() { return name; }
+    public TileType getResult() { return result; }
+    public int getResultQuantity() { return resultQuantity; }
+    public TileType[] getIngredients() { return ingredients; }
+    public int[] getIngredientQuantities() { return ingredientQuantities; }
+    public boolean requiresWorkbench() { return requiresWorkbench; }
+    
+    public String getIngredientsText() {
+        if (ingredientsText == null) {
+            StringBuilder text = new StringBuilder("Needs: ");
+            for (int i = 0; i < ingredients.length; i++) {
+                text.append(ingredientQuantities[i])
+                    .append("x ")
+                    .append(ingredients[i].name())
+                    .append("  ");
+            }
+            ingredientsText = text.toString();
+        }
+        return ingredientsText;
+    }
+}
+
+class CraftingSystem {
+    private List<CraftingRecipe> recipes;
+    
+    public CraftingSystem() {
+        recipes = new ArrayList<>();
+        initializeRecipes();
+    }
+    
+    private void initializeRecipes() {
+        // Recipe 1: Workbench (4 Stone -> 1 Workbench)
+        // In a real game, this would be 4 Wood Planks, but we'll use Stone for now
+        recipes.add(new CraftingRecipe(
+            "Workbench",
+            TileType.WORKBENCH,
+            1,
+            new TileType[]{TileType.STONE},
+            new int[]{4},
+            false // Can craft without workbench
+        ));
+        
+        // Recipe 2: Torch (1 Coal + 1 Stone -> 4 Torches)
+        recipes.add(new CraftingRecipe(
+            "Torch x4",
+            TileType.TORCH,
+            4,
+            new TileType[]{TileType.COAL_ORE, TileType.STONE},
+            new int[]{1, 1},
+            false // Can craft without workbench
+        ));
+        
+        // Recipe 3: Lamp (1 Torch + 2 Iron + 1 Stone -> 1 Lamp) - Requires Workbench
+        recipes.add(new CraftingRecipe(
+            "Lamp",
+            TileType.LAMP,
+            1,
+            new TileType[]{TileType.TORCH, TileType.IRON_ORE, TileType.STONE},
+            new int[]{1, 2, 1},
+            true // Requires workbench
+        ));
+        
+        // Recipe 4: Stone Bricks (4 Stone -> 4 Stone Bricks) - Requires Workbench
+        recipes.add(new CraftingRecipe(
+            "Stone Bricks x4",
+            TileType.STONE_BRICKS,
+            4,
+            new TileType[]{TileType.STONE},
+            new int[]{4},
+            true // Requires workbench
+        ));
+    }
+    
+    public List<CraftingRecipe> getAvailableRecipes(boolean nearWorkbench) {
+        List<CraftingRecipe> available = new ArrayList<>();
+        for (CraftingRecipe recipe : recipes) {
+            if (!recipe.requiresWorkbench() || nearWorkbench) {
+                available.add(recipe);
+            }
+        }
+        return available;
+    }
+    
+    // Same filter as getAvailableRecipes, but fills a caller-owned list instead of allocating
+    public void collectAvailableRecipes(boolean nearWorkbench, List<CraftingRecipe> out) {
+        out.clear();
+        for (CraftingRecipe recipe : recipes) {
+            if (!recipe.requiresWorkbench() || nearWorkbench) {
+                out.add(recipe);
+            }
+        }
+    }
+    
+    public List<CraftingRecipe> getAllRecipes() {
+        return recipes;
+    }
+}
+
+class SimplexNoise {
+    private final Random random;
+    
+    public SimplexNoise(long seed) {
+        this.random = new Random(seed);
+    }
+    
+    public double noise(double x, double y) {
+        int intX = (int) Math.floor(x);
+        int intY = (int) Math.floor(y);
+        
+        double fracX = x - intX;
+        double fracY = y - intY;
+        
+        double n1 = dotGridGradient(intX, intY, x, y);
+        double n2 = dotGridGradient(intX + 1, intY, x, y);
+        double ix1 = interpolate(n1, n2, fracX);
+        
+        n1 = dotGridGradient(intX, intY + 1, x, y);
+        n2 = dotGridGradient(intX + 1, intY + 1, x, y);
+        double ix2 = interpolate(n1, n2, fracX);
+        
+        return interpolate(ix1, ix2, fracY);
+    }
+    
+    private double dotGridGradient(int ix, int iy, double x, double y) {
+        random.setSeed(ix * 73856093L + iy * 19349663L);
+        double dx = x - ix;
+        double dy = y - iy;
+        
+        double gradientX = random.nextGaussian();
+        double gradientY = random.nextGaussian();
+        
+        return dx * gradientX + dy * gradientY;
+    }
+    
+    private double interpolate(double a, double b, double t) {
+        t = t * t * (3.0 - 2.0 * t);
+        return a + t * (b - a);
+    }
+}
+
+class World {
+    private static final int WORLD_WIDTH = 150;
+    private static final int WORLD_HEIGHT = 80;
+    public static final int TILE_SIZE = 16;
+    public static final float MAX_STEP = TILE_SIZE / 2f; // Largest single collision move in pixels
+    public static final int CHUNK_SIZE = 16; // Tiles per chunk side
+    public static final int CHUNKS_X = (WORLD_WIDTH + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    public static final int CHUNKS_Y = (WORLD_HEIGHT + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    
+    // Autotile neighbour bits: set when that neighbour is filled (not AIR)
+    public static final int N = 1, NE = 2, E = 4, SE = 8, S = 16, SW = 32, W = 64, NW = 128;
+    private static final int[] NEIGHBOR_DX = {0, 1, 1, 1, 0, -1, -1, -1};
+    private static final int[] NEIGHBOR_DY = {-1, -1, 0, 1, 1, 1, 0, -1};
+    
+    private TileType[][] tiles;
+    private byte[][] neighborMasks; // [chunk][local tile], see getNeighborMask
+    private int[] chunkVersions = new int[CHUNKS_X * CHUNKS_Y]; // Bumped when a chunk's tiles or masks change
+    private int version = 0; // Bumped on every setTile so caches can tell the world changed
+    private int[] surfaceHeight = new int[WORLD_WIDTH]; // First non-AIR row of each column
+    private SimplexNoise heightNoise;
+    private SimplexNoise caveNoise;
+    private Random random;
+    
+    public World(long seed) {
+        tiles = new TileType[WORLD_WIDTH][WORLD_HEIGHT];
+        heightNoise = new SimplexNoise(seed);
+        caveNoise = new SimplexNoise(seed + 1000);
+        random = new Random(seed);
+        generateWorld(seed);
+    }
+    
+    private void generateWorld(long seed) {
+        runPhase("terrain", seed, this::generateTerrain);
+        runPhase("caves", seed, this::generateCaves);
+        runPhase("ores", seed, this::placeOres);
+        runPhase("lava", seed, this::placeLava);
+        runPhase("torches", seed, this::placeTorches); // New: Add some torches for lighting
+        runPhase("surface and autotile masks", seed, () -> {
+            for (int x = 0; x < WORLD_WIDTH; x++) {
+                updateSurfaceHeight(x);
+            }
+            
+            neighborMasks = new byte[CHUNKS_X * CHUNKS_Y][CHUNK_SIZE * CHUNK_SIZE];
+            for (int x = 0; x < WORLD_WIDTH; x++) {
+                for (int y = 0; y < WORLD_HEIGHT; y++) {
+                    updateNeighborMask(x, y);
+                }
+            }
+        });
+    }
+    
+    // One generation step, timed as a Flight Recorder event
+    private static void runPhase(String phase, long seed, Runnable step) {
+        if (!FlightEvents.active() || !WorldGenerationEvent.TYPE.isEnabled()) {
+            step.run();
+            return;
+        }
+        WorldGenerationEvent event = new WorldGenerationEvent();
+        event.begin();
+        step.run();
+        event.phase = phase;
+        event.seed = seed;
+        event.commit();
+    }
+    
+    private void updateNeighborMask(int x, int y) {
+        int mask = 0;
+        for (int i = 0; i < 8; i++) {
+            if (getTile(x + NEIGHBOR_DX[i], y + NEIGHBOR_DY[i]) != TileType.AIR) {
+                mask |= 1 << i;
+            }
+        }
+        int chunk = (y / CHUNK_SIZE) * CHUNKS_X + x / CHUNK_SIZE;
+        neighborMasks[chunk][(y % CHUNK_SIZE) * CHUNK_SIZE + x % CHUNK_SIZE] = (byte) mask;
+    }
+    
+    private void updateSurfaceHeight(int x) {
+        int y = 0;
+        while (y < WORLD_HEIGHT && tiles[x][y] == TileType.AIR) {
+            y++;
+        }
+        surfaceHeight[x] = y;
+    }
+    
+    private void generateTerrain() {
+        for (int x = 0; x < WORLD_WIDTH; x++) {
+            double heightValue = heightNoise.noise(x * 0.01, 0) * 0.5 + 0.5;
+            int surfaceHeight = (int) (20 + heightValue * 15);
+            
+            for (int y = 0; y < WORLD_HEIGHT; y++) {
+                if (y < surfaceHeight) {
+                    tiles[x][y] = TileType.AIR;
+                } else if (y < surfaceHeight + 1) {
+                    tiles[x][y] = TileType.GRASS;
+                } else if (y < surfaceHeight + 4) {
+                    tiles[x][y] = TileType.DIRT;
+                } else {
+                    tiles[x][y] = TileType.STONE;
+                }
+            }
+        }
+    }
+    
+    private void generateCaves() {
+        for (int x = 0; x < WORLD_WIDTH; x++) {
+            for (int y = 25; y < WORLD_HEIGHT - 5; y++) {
+                double caveValue = caveNoise.noise(x * 0.05, y * 0.05);
+                if (caveValue > 0.2) {
+                    tiles[x][y] = TileType.AIR;
+                }
+            }
+        }
+    }
+    
+    private void placeOres() {
+        for (int x = 0; x < WORLD_WIDTH; x++) {
+            for (int y = 30; y < WORLD_HEIGHT; y++) {
+                if (tiles[x][y] == TileType.STONE) {
+                    random.setSeed(x * 12345L + y * 67890L);
+                    double oreChance = random.nextDouble();
+                    
+                    if (oreChance < 0.008 && y > 55) {
+                        tiles[x][y] = TileType.GOLD_ORE;
+                    } else if (oreChance < 0.025 && y > 40) {
+                        tiles[x][y] = TileType.IRON_ORE;
+                    } else if (oreChance < 0.06 && y > 30) {
+                        tiles[x][y] = TileType.COAL_ORE;
+                    }
+                }
+            }
+        }
+    }
+    
+    private void placeLava() {
+        for (int x = 0; x < WORLD_WIDTH; x++) {
+            for (int y = WORLD_HEIGHT - 10; y < WORLD_HEIGHT; y++) {
+                if (tiles[x][y] == TileType.AIR) {
+                    random.setSeed(x * 54321L + y * 98765L);
+                    if (random.nextDouble() < 0.3) {
+                        tiles[x][y] = TileType.LAVA;
+                    }
+                }
+            }
+        }
+    }
+    
+    private void placeTorches() {
+        // Place some torches in caves for initial lighting
+        for (int x = 1; x < WORLD_WIDTH - 1; x += 20) {
+            for (int y = 25; y < WORLD_HEIGHT - 10; y += 15) {
+                if (tiles[x][y] == TileType.AIR && 
+                    (tiles[x][y + 1] != TileType.AIR || tiles[x - 1][y] != TileType.AIR || tiles[x + 1][y] != TileType.AIR)) {
+                    random.setSeed(x * 11111L + y * 22222L);
+                    if (random.nextDouble() < 0.3) {
+                        tiles[x][y] = TileType.TORCH;
+                    }
+                }
+            }
+        }
+    }
+    
+    public TileType getTile(int x, int y) {
+        if (x < 0 || x >= WORLD_WIDTH || y < 0 || y >= WORLD_HEIGHT) {
+            return TileType.STONE;
+        }
+        return tiles[x][y];
+    }
+    
+    public void setTile(int x, int y, TileType type) {
+        if (x >= 0 && x < WORLD_WIDTH && y >= 0 && y < WORLD_HEIGHT) {
+            tiles[x][y] = type;
+            version++;
+            
+            // Keep the heightmap in step: only edits at or above the surface can move it
+            if (type != TileType.AIR && y < surfaceHeight[x]) {
+                surfaceHeight[x] = y;
+            } else if (type == TileType.AIR && y == surfaceHeight[x]) {
+                updateSurfaceHeight(x);
+            }
+            
+            // Only the 3x3 block around the edit can see a different neighbour
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(WORLD_WIDTH - 1, x + 1); nx++) {
+                for (int ny = Math.max(0, y - 1); ny <= Math.min(WORLD_HEIGHT - 1, y + 1); ny++) {
+                    updateNeighborMask(nx, ny);
+                    chunkVersions[(ny / CHUNK_SIZE) * CHUNKS_X + nx / CHUNK_SIZE]++;
+                }
+            }
+        }
+    }
+    
+    public boolean isSolid(int x, int y) {
+        return getTile(x, y).isSolid();
+    }
+    
+    public boolean isDamaging(int x, int y) {
+        return getTile(x, y).isDamaging();
+    }
+    
+    public int getWorldWidth() { return WORLD_WIDTH; }
+    public int getWorldHeight() { return WORLD_HEIGHT; }
+    public int getVersion() { return version; }
+    public int getChunkVersion(int chunk) { return chunkVersions[chunk]; }
+    
+    // Cached 8-neighbour bitmask (N, NE, E ... NW) for autotiling, no tile lookups involved
+    public int getNeighborMask(int x, int y) {
+        if (x < 0 || x >= WORLD_WIDTH || y < 0 || y >= WORLD_HEIGHT) {
+            return 0xFF;
+        }
+        int chunk = (y / CHUNK_SIZE) * CHUNKS_X + x / CHUNK_SIZE;
+        return neighborMasks[chunk][(y % CHUNK_SIZE) * CHUNK_SIZE + x % CHUNK_SIZE] & 0xFF;
+    }
+    
+    // Row of the topmost non-AIR tile in column x (WORLD_HEIGHT if the column is empty)
+    public int getSurfaceHeight(int x) {
+        if (x < 0 || x >= WORLD_WIDTH) {
+            return 0;
+        }
+        return surfaceHeight[x];
+    }
+}
+
+// NEW: Batches solid-colour rectangles so each colour is set once per frame
+class TileBatch {
+    private static final int COLOR_CACHE_SIZE = 4096; // Power of two
+    
+    // Runs recorded this frame, chained into per-colour lists through runNext
+    private int[] runX = new int[1024];
+    private int[] runY = new int[1024];
+    private int[] runWidth = new int[1024];
+    private int[] runNext = new int[1024];
+    private int runCount = 0;
+    
+    // Colour groups in first-seen order
+    private int[] groupRgb = new int[64];
+    private int[] groupHead = new int[64];
+    private int[] groupTail = new int[64];
+    private int groupCount = 0;
+    
+    // Open-addressing rgb -> group lookup, entries are valid only for the current frame stamp
+    private int[] slotRgb = new int[256];
+    private int[] slotGroup = new int[256];
+    private int[] slotFrame = new int[256];
+    private int frame = 1;
+    
+    // Colour objects are reused across frames, the cache is simply wiped when it fills up
+    private final int[] colorKeys = new int[COLOR_CACHE_SIZE];
+    private final Color[] colorValues = new Color[COLOR_CACHE_SIZE];
+    private int colorCount = 0;
+    
+    private int tileHeight;
+    
+    public void begin(int tileHeight) {
+        this.tileHeight = tileHeight;
+        runCount = 0;
+        groupCount = 0;
+        frame++;
+    }
+    
+    // Queue a run of same-coloured tiles starting at (x, y)
+    public void addRun(int rgb, int x, int y, int width) {
+        int group = findGroup(rgb);
+        if (runCount == runX.length) {
+            int newSize = runCount * 2;
+            runX = java.util.Arrays.copyOf(runX, newSize);
+            runY = java.util.Arrays.copyOf(runY, newSize);
+            runWidth = java.util.Arrays.copyOf(runWidth, newSize);
+            runNext = java.util.Arrays.copyOf(runNext, newSize);
+        }
+        int run = runCount++;
+        runX[run] = x;
+        runY[run] = y;
+        runWidth[run] = width;
+        runNext[run] = -1;
+        if (groupHead[group] < 0) {
+            groupHead[group] = run;
+        } else {
+            runNext[groupTail[group]] = run;
+        }
+        groupTail[group] = run;
+    }
+    
+    // Draw all queued runs, one setColor per colour group
+    public void flush(Graphics2D g2d) {
+        for (int group = 0; group < groupCount; group++) {
+            g2d.setColor(getColor(groupRgb[group]));
+            for (int run = groupHead[group]; run >= 0; run = runNext[run]) {
+                g2d.fillRect(runX[run], runY[run], runWidth[run], tileHeight);
+            }
+        }
+    }
+    
+    private int findGroup(int rgb) {
+        int mask = slotRgb.length - 1;
+        int slot = mix(rgb) & mask;
+        while (slotFrame[slot] == frame) {
+            if (slotRgb[slot] == rgb) {
+                return slotGroup[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        
+        if (groupCount == groupRgb.length) {
+            int newSize = groupCount * 2;
+            groupRgb = java.util.Arrays.copyOf(groupRgb, newSize);
+            groupHead = java.util.Arrays.copyOf(groupHead, newSize);
+            groupTail = java.util.Arrays.copyOf(groupTail, newSize);
+        }
+        int group = groupCount++;
+        groupRgb[group] = rgb;
+        groupHead[group] = -1;
+        
+        slotFrame[slot] = frame;
+        slotRgb[slot] = rgb;
+        slotGroup[slot] = group;
+        
+        // Keep the table at most half full
+        if (groupCount * 2 > slotRgb.length) {
+            growSlots();
+        }
+        return group;
+    }
+    
+    private void growSlots() {
+        int newSize = slotRgb.length * 2;
+        slotRgb = new int[newSize];
+        slotGroup = new int[newSize];
+        slotFrame = new int[newSize];
+        int mask = newSize - 1;
+        for (int group = 0; group < groupCount; group++) {
+            int slot = mix(groupRgb[group]) & mask;
+            while (slotFrame[slot] == frame) {
+                slot = (slot + 1) & mask;
+            }
+            slotFrame[slot] = frame;
+            slotRgb[slot] = groupRgb[group];
+            slotGroup[slot] = group;
+        }
+    }
+    
+    private Color getColor(int rgb) {
+        int mask = COLOR_CACHE_SIZE - 1;
+        int slot = mix(rgb) & mask;
+        while (colorValues[slot] != null) {
+            if (colorKeys[slot] == rgb) {
+                return colorValues[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (colorCount * 2 > COLOR_CACHE_SIZE) {
+            java.util.Arrays.fill(colorValues, null);
+            colorCount = 0;
+            slot = mix(rgb) & mask;
+        }
+        Color color = new Color(rgb);
+        colorKeys[slot] = rgb;
+        colorValues[slot] = color;
+        colorCount++;
+        return color;
+    }
+    
+    private static int mix(int rgb) {
+        int h = rgb * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
+
+// NEW: Edge and corner shading for tiles, picked from a precomputed table by neighbour mask
+class AutotileEdges {
+    private static final int EDGE = 2; // Edge thickness in pixels
+    private static final Color EDGE_COLOR = new Color(0, 0, 0, 90);
+    
+    // For each of the 256 neighbour masks: packed {x, y, width, height} rectangles in tile space
+    private static final int[][] RECTS = new int[256][];
+    
+    static {
+        int t = World.TILE_SIZE;
+        for (int mask = 0; mask < 256; mask++) {
+            List<int[]> rects = new ArrayList<>();
+            boolean n = (mask & World.N) != 0, e = (mask & World.E) != 0;
+            boolean s = (mask & World.S) != 0, w = (mask & World.W) != 0;
+            
+            // Outer edges on every open side
+            if (!n) rects.add(new int[]{0, 0, t, EDGE});
+            if (!s) rects.add(new int[]{0, t - EDGE, t, EDGE});
+            if (!w) rects.add(new int[]{0, n ? 0 : EDGE, EDGE, t - (n ? 0 : EDGE) - (s ? 0 : EDGE)});
+            if (!e) rects.add(new int[]{t - EDGE, n ? 0 : EDGE, EDGE, t - (n ? 0 : EDGE) - (s ? 0 : EDGE)});
+            
+            // Inner corners where both sides are filled but the diagonal is open
+            if (n && e && (mask & World.NE) == 0) rects.add(new int[]{t - EDGE, 0, EDGE, EDGE});
+            if (s && e && (mask & World.SE) == 0) rects.add(new int[]{t - EDGE, t - EDGE, EDGE, EDGE});
+            if (s && w && (mask & World.SW) == 0) rects.add(new int[]{0, t - EDGE, EDGE, EDGE});
+            if (n && w && (mask & World.NW) == 0) rects.add(new int[]{0, 0, EDGE, EDGE});
+            
+            int[] packed = new int[rects.size() * 4];
+            for (int i = 0; i < rects.size(); i++) {
+                System.arraycopy(rects.get(i), 0, packed, i * 4, 4);
+            }
+            RECTS[mask] = packed;
+        }
+    }
+    
+    // Draw edges for every filled tile in the given range with a single colour change
+    public static void draw(Graphics2D g2d, World world, int startX, int endX, int startY, int endY,
+                            int cameraX, int cameraY) {
+        g2d.setColor(EDGE_COLOR);
+        for (int y = startY; y < endY; y++) {
+            int screenY = y * World.TILE_SIZE - cameraY;
+            for (int x = startX; x < endX; x++) {
+                if (world.getTile(x, y) == TileType.AIR) {
+                    continue;
+                }
+                int[] rects = RECTS[world.getNeighborMask(x, y)];
+                int screenX = x * World.TILE_SIZE - cameraX;
+                for (int i = 0; i < rects.length; i += 4) {
+                    g2d.fillRect(screenX + rects[i], screenY + rects[i + 1], rects[i + 2], rects[i + 3]);
+                }
+            }
+        }
+    }
+}
+
+// NEW: Per-corner light values (average of the 4 tiles sharing the corner), cached per chunk
+class SmoothLighting {
+    private static final int CORNERS = World.CHUNK_SIZE + 1; // Corners per chunk side
+    
+    private final World world;
+    private final LightingSystem lighting;
+    private final float[][] corners = new float[World.CHUNKS_X * World.CHUNKS_Y][];
+    private final int[] cornerVersions = new int[World.CHUNKS_X * World.CHUNKS_Y];
+    
+    public SmoothLighting(World world, LightingSystem lighting) {
+        this.world = world;
+        this.lighting = lighting;
+    }
+    
+    // Corner values for a chunk, rebuilt only if light around the chunk has changed.
+    // Corner (i, j) is the top-left corner of local tile (i, j); row length is CHUNK_SIZE + 1.
+    // A returned array is never written again: callers read it after the lock is released
+    // (raster bands, the prefetch thread), so a rebuild goes into a fresh array.
+    public synchronized float[] getChunkCorners(int chunk) {
+        int version = lighting.getNeighborhoodLightVersion(chunk);
+        if (corners[chunk] == null || cornerVersions[chunk] != version) {
+            float[] built = new float[CORNERS * CORNERS];
+            buildCorners(chunk, built);
+            corners[chunk] = built;
+            cornerVersions[chunk] = version;
+        }
+        return corners[chunk];
+    }
+    
+    private void buildCorners(int chunk, float[] out) {
+        int originX = (chunk % World.CHUNKS_X) * World.CHUNK_SIZE;
+        int originY = (chunk / World.CHUNKS_X) * World.CHUNK_SIZE;
+        for (int j = 0; j < CORNERS; j++) {
+            for (int i = 0; i < CORNERS; i++) {
+                int x = originX + i;
+                int y = originY + j;
+                int total = 0;
+                int count = 0;
+                for (int tx = x - 1; tx <= x; tx++) {
+                    for (int ty = y - 1; ty <= y; ty++) {
+                        if (tx >= 0 && tx < world.getWorldWidth() && ty >= 0 && ty < world.getWorldHeight()) {
+                            total += lighting.getLightLevel(tx, ty);
+                            count++;
+                        }
+                    }
+                }
+                out[j * CORNERS + i] = count > 0 ? (float) total / count : 0;
+            }
+        }
+    }
+}
+
+// NEW: Draws lit tiles (batched by colour) and their autotile edges for a block of the world
+class TileRenderer {
+    private final World world;
+    private final LightingSystem lighting;
+    private final TileBatch batch = new TileBatch(); // Not thread safe, one renderer per thread
+    private final SmoothLighting smoothLighting;
+    private volatile boolean smooth = false;
+    private BufferedImage screenBuffer; // Raster target for direct smooth drawing
+    private float[] screenLight = new float[0]; // Per-pixel light for screenBuffer
+    private float[] chunkLight = new float[0];  // Per-pixel light for renderChunk
+    private static final CraftingGame.LightShader SHADER = CraftingGame.LightShader.create();
+    
+    // Screen bands rendered in parallel on the common ForkJoinPool (the caller takes one too)
+    private static final int BANDS = Runtime.getRuntime().availableProcessors() * 2;
+    private static final int MIN_BAND_HEIGHT = 16;
+    
+    private class RasterBand extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final int[] pixels;
+        private final float[] light;
+        private final int width, top, bottom;
+        private final int startX, endX, startY, endY, originX, originY;
+        private final float ambientLight;
+        private final boolean night;
+        
+        RasterBand(int[] pixels, float[] light, int width, int top, int bottom, int startX, int endX,
+                   int startY, int endY, int originX, int originY, float ambientLight, boolean night) {
+            this.pixels = pixels;
+            this.light = light;
+            this.width = width;
+            this.top = top;
+            this.bottom = bottom;
+            this.startX = startX;
+            this.endX = endX;
+            this.startY = startY;
+            this.endY = endY;
+            this.originX = originX;
+            this.originY = originY;
+            this.ambientLight = ambientLight;
+            this.night = night;
+        }
+        
+        @Override
+        protected void compute() {
+            java.util.Arrays.fill(pixels, top * width, bottom * width, 0);
+            rasterizeSmooth(pixels, light, width, top, bottom, startX, endX, startY, endY,
+                            originX, originY, night);
+            SHADER.shade(pixels, light, top * width, bottom * width, ambientLight);
+        }
+    }
+    
+    public TileRenderer(World world, LightingSystem lighting, SmoothLighting smoothLighting) {
+        this.world = world;
+        this.lighting = lighting;
+        this.smoothLighting = smoothLighting;
+    }
+    
+    public void setSmoothLighting(boolean smooth) { this.smooth = smooth; }
+    public boolean isSmoothLighting() { return smooth; }
+    
+    // Draw tiles [startX, endX) x [startY, endY) with world pixel (originX, originY) at 0,0
+    public void drawTiles(Graphics2D g2d, int startX, int endX, int startY, int endY,
+                          int originX, int originY, float ambientLight, boolean night) {
+        if (smooth) {
+            // Rasterize into a screen-sized buffer (grown as needed) and blit it in one go
+            int neededWidth = (endX - startX + 1) * World.TILE_SIZE;
+            int neededHeight = (endY - startY + 1) * World.TILE_SIZE;
+            if (screenBuffer == null || screenBuffer.getWidth() < neededWidth ||
+                screenBuffer.getHeight() < neededHeight) {
+                screenBuffer = new BufferedImage(neededWidth, neededHeight, BufferedImage.TYPE_INT_ARGB);
+            }
+            int width = screenBuffer.getWidth();
+            int height = screenBuffer.getHeight();
+            int[] pixels = ((DataBufferInt) screenBuffer.getRaster().getDataBuffer()).getData();
+            if (screenLight.length < pixels.length) {
+                screenLight = new float[pixels.length];
+            }
+            
+            // Horizontal bands of the same raster are filled in parallel, each by one worker
+            int bands = Math.max(1, Math.min(BANDS, height / MIN_BAND_HEIGHT));
+            RasterBand[] tasks = new RasterBand[bands];
+            for (int i = 0; i < bands; i++) {
+                tasks[i] = new RasterBand(pixels, screenLight, width, height * i / bands, height * (i + 1) / bands,
+                                          startX, endX, startY, endY, originX, originY, ambientLight, night);
+            }
+            ForkJoinTask.invokeAll(tasks);
+            g2d.drawImage(screenBuffer, 0, 0, null);
+            AutotileEdges.draw(g2d, world, startX, endX, startY, endY, originX, originY);
+            return;
+        }
+        
+        // Merge same-colour tiles into runs per row and draw one colour at a time
+        // (AIR is left empty so the sky shows through)
+        batch.begin(World.TILE_SIZE);
+        for (int y = startY; y < endY; y++) {
+            int screenY = y * World.TILE_SIZE - originY;
+            int runStart = startX;
+            int runRgb = -1;
+            for (int x = startX; x <= endX; x++) {
+                int rgb = -1;
+                if (x < endX) {
+                    TileType tile = world.getTile(x, y);
+                    if (tile != TileType.AIR) {
+                        int lightLevel = lighting.getLightLevel(x, y);
+                        
+                        // NEW: Use warm lamp glow for better lighting effect
+                        if (tile == TileType.LAMP || (lightLevel > 10 && night)) {
+                            rgb = LightingSystem.applyLampGlowRGB(tile.getColor().getRGB(), lightLevel, ambientLight);
+                        } else {
+                            rgb = LightingSystem.applyLightingRGB(tile.getColor().getRGB(), lightLevel, ambientLight);
+                        }
+                    }
+                }
+                
+                if (rgb != runRgb) {
+                    if (runRgb != -1) {
+                        batch.addRun(runRgb, runStart * World.TILE_SIZE - originX, screenY,
+                                     (x - runStart) * World.TILE_SIZE);
+                    }
+                    runStart = x;
+                    runRgb = rgb;
+                }
+            }
+        }
+        batch.flush(g2d);
+        
+        // Edges and corners from the cached neighbour masks
+        AutotileEdges.draw(g2d, world, startX, endX, startY, endY, originX, originY);
+    }
+    
+    // Render one chunk into target (allocated if null), transparent where there is AIR
+    public BufferedImage renderChunk(int chunkX, int chunkY, float ambientLight, boolean night,
+                                     BufferedImage target) {
+        int size = World.CHUNK_SIZE * World.TILE_SIZE;
+        if (target == null) {
+            target = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        }
+        Graphics2D g = target.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, size, size);
+        g.setComposite(AlphaComposite.SrcOver);
+        
+        int startX = chunkX * World.CHUNK_SIZE;
+        int startY = chunkY * World.CHUNK_SIZE;
+        int endX = Math.min(world.getWorldWidth(), startX + World.CHUNK_SIZE);
+        int endY = Math.min(world.getWorldHeight(), startY + World.CHUNK_SIZE);
+        if (smooth) {
+            int[] pixels = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+            if (chunkLight.length < pixels.length) {
+                chunkLight = new float[pixels.length];
+            }
+            rasterizeSmooth(pixels, chunkLight, size, 0, size, startX, endX, startY, endY,
+                            startX * World.TILE_SIZE, startY * World.TILE_SIZE, night);
+            SHADER.shade(pixels, chunkLight, 0, pixels.length, ambientLight);
+            AutotileEdges.draw(g, world, startX, endX, startY, endY,
+                               startX * World.TILE_SIZE, startY * World.TILE_SIZE);
+        } else {
+            drawTiles(g, startX, endX, startY, endY,
+                      startX * World.TILE_SIZE, startY * World.TILE_SIZE, ambientLight, night);
+        }
+        g.dispose();
+        return target;
+    }
+    
+    // Write tile colours into pixels and bilinear corner light into light, ready for the
+    // shading pass. Only pixel rows [top, bottom) are touched, so disjoint bands can run
+    // concurrently.
+    private void rasterizeSmooth(int[] pixels, float[] light, int width, int top, int bottom,
+                                 int startX, int endX, int startY, int endY, int originX, int originY,
+                                 boolean night) {
+        int size = World.TILE_SIZE;
+        int corners = World.CHUNK_SIZE + 1;
+        for (int y = startY; y < endY; y++) {
+            int py0 = y * size - originY;
+            if (py0 >= bottom || py0 + size <= top) continue;
+            int chunkY = y / World.CHUNK_SIZE;
+            int cornerRow = (y - chunkY * World.CHUNK_SIZE) * corners;
+            int chunk = -1;
+            float[] chunkCorners = null;
+            for (int x = startX; x < endX; x++) {
+                int px0 = x * size - originX;
+                if (px0 >= width || px0 + size <= 0) continue;
+                TileType tile = world.getTile(x, y);
+                if (tile == TileType.AIR) continue;
+                
+                // Corner arrays are fetched once per chunk rather than per corner (the lookup locks)
+                int chunkX = x / World.CHUNK_SIZE;
+                if (chunkY * World.CHUNKS_X + chunkX != chunk) {
+                    chunk = chunkY * World.CHUNKS_X + chunkX;
+                    chunkCorners = smoothLighting.getChunkCorners(chunk);
+                }
+                int corner = cornerRow + x - chunkX * World.CHUNK_SIZE;
+                float l00 = chunkCorners[corner];
+                float l10 = chunkCorners[corner + 1];
+                float l01 = chunkCorners[corner + corners];
+                float l11 = chunkCorners[corner + corners + 1];
+                
+                // Warm glow is still chosen from the tile's own light, as in flat mode
+                boolean lamp = tile == TileType.LAMP || (lighting.getLightLevel(x, y) > 10 && night);
+                int mode = lamp ? CraftingGame.LightShader.ALBEDO_LAMP : CraftingGame.LightShader.ALBEDO_LIT;
+                int albedo = (mode << 24) | (tile.getColor().getRGB() & 0xFFFFFF);
+                
+                int fromX = Math.max(0, px0), toX = Math.min(width, px0 + size);
+                int fromY = Math.max(top, py0), toY = Math.min(bottom, py0 + size);
+                for (int py = fromY; py < toY; py++) {
+                    java.util.Arrays.fill(pixels, py * width + fromX, py * width + toX, albedo);
+                }
+                if (l00 == l10 && l00 == l01 && l00 == l11) {
+                    for (int py = fromY; py < toY; py++) {
+                        java.util.Arrays.fill(light, py * width + fromX, py * width + toX, l00);
+                    }
+                    continue;
+                }
+                
+                // Bilinear light, sampled at pixel centres
+                for (int py = fromY; py < toY; py++) {
+                    float fy = ((py - py0) * 2 + 1) / (2.0f * size);
+                    float left = l00 + (l01 - l00) * fy;
+                    float right = l10 + (l11 - l10) * fy;
+                    int row = py * width;
+                    for (int px = fromX; px < toX; px++) {
+                        float fx = ((px - px0) * 2 + 1) / (2.0f * size);
+                        light[row + px] = left + (right - left) * fx;
+                    }
+                }
+            }
+        }
+    }
+}
+
+// NEW: LRU cache of rendered chunk images, shared by the render thread and the prefetcher
+class ChunkCache {
+    private static class Entry {
+        BufferedImage image;
+        int tileVersion;
+        int lightVersion;
+        float ambientLight;
+        boolean night;
     }
     
-    public boolean canCraft(Player player) {
-        for (int i = 0; i < ingredients.length; i++) {
-            if (!player.hasItem(ingredients[i], ingredientQuantities[i])) {
+    private final World world;
+    private final LightingSystem lighting;
+    private final int capacity;
+    private final java.util.LinkedHashMap<Integer, Entry> entries;
+    // Images leave the cache into retiredImages, since the EDT may still be drawing them. They
+    // become spares, free to render into from either thread, only at the start of the next frame
+    private final List<BufferedImage> retiredImages = new ArrayList<>();
+    private final List<BufferedImage> spareImages = new ArrayList<>();
+    private int generation = 0; // Bumped by clear(); renders started under an older one are dropped
+    private int misses = 0;
+    
+    public ChunkCache(World world, LightingSystem lighting, int capacity) {
+        this.world = world;
+        this.lighting = lighting;
+        this.capacity = capacity;
+        this.entries = new java.util.LinkedHashMap<Integer, Entry>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<Integer, Entry> eldest) {
+                if (size() > ChunkCache.this.capacity) {
+                    retiredImages.add(eldest.getValue().image);
+                    return true;
+                }
                 return false;
             }
-        }
-        return true;
+        };
     }
     
-    public void craft(Player player) {
-        // Remove ingredients
-        for (int i = 0; i < ingredients.length; i++) {
-            player.removeItem(ingredients[i], ingredientQuantities[i]);
-        }
-        
-        // Add result
-        player.addItem(result, resultQuantity);
+    public synchronized boolean isValid(int chunk, float ambientLight, boolean night) {
+        Entry entry = entries.get(chunk);
+        return entry != null && isCurrent(entry, chunk, ambientLight, night);
     }
     
-    public String getName() { return name; }
-    public TileType getResult() { return result; }
-    public int getResultQuantity() { return resultQuantity; }
-    public TileType[] getIngredients() { return ingredients; }
-    public int[] getIngredientQuantities() { return ingredientQuantities; }
-    public boolean requiresWorkbench() { return requiresWorkbench; }
-}
-
-class CraftingSystem {
-    private List<CraftingRecipe> recipes;
+    private boolean isCurrent(Entry entry, int chunk, float ambientLight, boolean night) {
+        return entry.tileVersion == world.getChunkVersion(chunk) &&
+               entry.lightVersion == lighting.getNeighborhoodLightVersion(chunk) &&
+               entry.ambientLight == ambientLight && entry.night == night;
+    }
     
-    public CraftingSystem() {
-        recipes = new ArrayList<>();
-        initializeRecipes();
+    // Cached image for the chunk, rendering it with the given renderer on a miss
+    public BufferedImage getOrRender(int chunk, TileRenderer renderer, float ambientLight, boolean night) {
+        BufferedImage reuse;
+        int renderGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(chunk);
+            if (entry != null && isCurrent(entry, chunk, ambientLight, night)) {
+                return entry.image;
+            }
+            misses++;
+            reuse = spareImages.isEmpty() ? null : spareImages.remove(spareImages.size() - 1);
+            renderGeneration = generation;
+        }
+        return render(chunk, renderer, ambientLight, night, reuse, renderGeneration, true);
     }
     
-    private void initializeRecipes() {
-        // Recipe 1: Workbench (4 Stone -> 1 Workbench)
-        // In a real game, this would be 4 Wood Planks, but we'll use Stone for now
-        recipes.add(new CraftingRecipe(
-            "Workbench",
-            TileType.WORKBENCH,
-            1,
-            new TileType[]{TileType.STONE},
-            new int[]{4},
-            false // Can craft without workbench
-        ));
-        
-        // Recipe 2: Torch (1 Coal + 1 Stone -> 4 Torches)
-        recipes.add(new CraftingRecipe(
-            "Torch x4",
-            TileType.TORCH,
-            4,
-            new TileType[]{TileType.COAL_ORE, TileType.STONE},
-            new int[]{1, 1},
-            false // Can craft without workbench
-        ));
-        
-        // Recipe 3: Lamp (1 Torch + 2 Iron + 1 Stone -> 1 Lamp) - Requires Workbench
-        recipes.add(new CraftingRecipe(
-            "Lamp",
-            TileType.LAMP,
-            1,
-            new TileType[]{TileType.TORCH, TileType.IRON_ORE, TileType.STONE},
-            new int[]{1, 2, 1},
-            true // Requires workbench
-        ));
-        
-        // Recipe 4: Stone Bricks (4 Stone -> 4 Stone Bricks) - Requires Workbench
-        recipes.add(new CraftingRecipe(
-            "Stone Bricks x4",
-            TileType.STONE_BRICKS,
-            4,
-            new TileType[]{TileType.STONE},
-            new int[]{4},
-            true // Requires workbench
-        ));
+    // Render a chunk ahead of time (prefetch thread), unless it is already current
+    public void prefetch(int chunk, TileRenderer renderer, float ambientLight, boolean night) {
+        BufferedImage reuse;
+        int renderGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(chunk);
+            if (entry != null && isCurrent(entry, chunk, ambientLight, night)) {
+                return;
+            }
+            reuse = spareImages.isEmpty() ? null : spareImages.remove(spareImages.size() - 1);
+            renderGeneration = generation;
+        }
+        render(chunk, renderer, ambientLight, night, reuse, renderGeneration, false);
     }
     
-    public List<CraftingRecipe> getAvailableRecipes(boolean nearWorkbench) {
-        List<CraftingRecipe> available = new ArrayList<>();
-        for (CraftingRecipe recipe : recipes) {
-            if (!recipe.requiresWorkbench() || nearWorkbench) {
-                available.add(recipe);
+    private BufferedImage render(int chunk, TileRenderer renderer, float ambientLight, boolean night,
+                                 BufferedImage reuse, int renderGeneration, boolean cacheMiss) {
+        ChunkRenderEvent event = FlightEvents.active() && ChunkRenderEvent.TYPE.isEnabled() ?
+                                 new ChunkRenderEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        
+        // Versions are read before rendering, so an edit during the render just makes it stale
+        Entry entry = new Entry();
+        entry.tileVersion = world.getChunkVersion(chunk);
+        entry.lightVersion = lighting.getNeighborhoodLightVersion(chunk);
+        entry.ambientLight = ambientLight;
+        entry.night = night;
+        entry.image = renderer.renderChunk(chunk % World.CHUNKS_X, chunk / World.CHUNKS_X,
+                                           ambientLight, night, reuse);
+        synchronized (this) {
+            if (renderGeneration != generation) {
+                // Mode changed while rendering (e.g. smooth lighting toggled): don't cache it
+                retiredImages.add(entry.image);
+            } else {
+                Entry old = entries.put(chunk, entry);
+                if (old != null && old.image != entry.image) {
+                    retiredImages.add(old.image);
+                }
             }
         }
-        return available;
+        
+        if (event != null && event.shouldCommit()) {
+            event.chunkX = chunk % World.CHUNKS_X;
+            event.chunkY = chunk / World.CHUNKS_X;
+            event.cacheMiss = cacheMiss;
+            event.commit();
+        }
+        return entry.image;
     }
     
-    public List<CraftingRecipe> getAllRecipes() {
-        return recipes;
+    public synchronized int getMisses() { return misses; }
+    
+    // Called by the EDT before it draws any chunk: images retired since the last frame are no
+    // longer being drawn, so they can be rendered into again
+    public synchronized void startFrame() {
+        spareImages.addAll(retiredImages);
+        retiredImages.clear();
+    }
+    
+    // Drop every cached image, e.g. after a rendering mode change
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            retiredImages.add(entry.image);
+        }
+        entries.clear();
+        generation++;
     }
 }
 
-class SimplexNoise {
-    private final Random random;
+// NEW: Renders chunks the camera is heading towards on a background thread
+class ChunkPrefetcher implements Runnable {
+    private static final int LOOKAHEAD_FRAMES = 20; // How far ahead to predict the camera
+    private static final int QUEUE_SIZE = 16;
+    
+    private final ChunkCache cache;
+    private final TileRenderer renderer;
+    private final BlockingQueue<Integer> requests = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final boolean[] queued = new boolean[World.CHUNKS_X * World.CHUNKS_Y];
+    private final int screenWidth, screenHeight;
+    
+    private volatile float ambientLight;
+    private volatile boolean night;
+    private int lastCameraX, lastCameraY;
+    private float velocityX, velocityY; // Smoothed camera movement in pixels per frame
+    private boolean hasLastCamera = false;
+    
+    public ChunkPrefetcher(ChunkCache cache, World world, LightingSystem lighting,
+                           SmoothLighting smoothLighting, int screenWidth, int screenHeight) {
+        this.cache = cache;
+        this.renderer = new TileRenderer(world, lighting, smoothLighting);
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+    }
     
-    public SimplexNoise(long seed) {
-        this.random = new Random(seed);
+    // Started with the game loop, so headless runs never spawn the thread
+    public void start() {
+        Thread thread = new Thread(this, "chunk-prefetch");
+        thread.setDaemon(true);
+        thread.start();
     }
     
-    public double noise(double x, double y) {
-        int intX = (int) Math.floor(x);
-        int intY = (int) Math.floor(y);
-        
-        double fracX = x - intX;
-        double fracY = y - intY;
-        
-        double n1 = dotGridGradient(intX, intY, x, y);
-        double n2 = dotGridGradient(intX + 1, intY, x, y);
-        double ix1 = interpolate(n1, n2, fracX);
-        
-        n1 = dotGridGradient(intX, intY + 1, x, y);
-        n2 = dotGridGradient(intX + 1, intY + 1, x, y);
-        double ix2 = interpolate(n1, n2, fracX);
-        
-        return interpolate(ix1, ix2, fracY);
+    // Called once per frame from the render thread with the current camera position
+    public void setSmoothLighting(boolean smooth) {
+        renderer.setSmoothLighting(smooth);
     }
     
-    private double dotGridGradient(int ix, int iy, double x, double y) {
-        random.setSeed(ix * 73856093L + iy * 19349663L);
-        double dx = x - ix;
-        double dy = y - iy;
+    public void update(int cameraX, int cameraY, float ambientLight, boolean night) {
+        this.ambientLight = ambientLight;
+        this.night = night;
+        if (hasLastCamera) {
+            velocityX = velocityX * 0.7f + (cameraX - lastCameraX) * 0.3f;
+            velocityY = velocityY * 0.7f + (cameraY - lastCameraY) * 0.3f;
+        }
+        lastCameraX = cameraX;
+        lastCameraY = cameraY;
+        hasLastCamera = true;
         
-        double gradientX = random.nextGaussian();
-        double gradientY = random.nextGaussian();
+        if (Math.abs(velocityX) < 0.5f && Math.abs(velocityY) < 0.5f) {
+            return; // Camera is (nearly) still, nothing new will scroll in
+        }
         
-        return dx * gradientX + dy * gradientY;
+        // Chunks covered by the predicted viewport that are not cached yet
+        int futureX = cameraX + (int) (velocityX * LOOKAHEAD_FRAMES);
+        int futureY = cameraY + (int) (velocityY * LOOKAHEAD_FRAMES);
+        int chunkPixels = World.CHUNK_SIZE * World.TILE_SIZE;
+        int startCX = Math.max(0, Math.min(cameraX, futureX) / chunkPixels);
+        int endCX = Math.min(World.CHUNKS_X - 1, (Math.max(cameraX, futureX) + screenWidth) / chunkPixels);
+        int startCY = Math.max(0, Math.min(cameraY, futureY) / chunkPixels);
+        int endCY = Math.min(World.CHUNKS_Y - 1, (Math.max(cameraY, futureY) + screenHeight) / chunkPixels);
+        
+        for (int cy = startCY; cy <= endCY; cy++) {
+            for (int cx = startCX; cx <= endCX; cx++) {
+                int chunk = cy * World.CHUNKS_X + cx;
+                synchronized (queued) {
+                    if (queued[chunk] || cache.isValid(chunk, ambientLight, night)) {
+                        continue;
+                    }
+                    if (requests.offer(chunk)) {
+                        queued[chunk] = true;
+                    }
+                }
+            }
+        }
     }
     
-    private double interpolate(double a, double b, double t) {
-        t = t * t * (3.0 - 2.0 * t);
-        return a + t * (b - a);
+    @Override
+    public void run() {
+        while (true) {
+            int chunk;
+            try {
+                chunk = requests.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            cache.prefetch(chunk, renderer, ambientLight, night);
+            synchronized (queued) {
+                queued[chunk] = false;
+            }
+        }
     }
 }
 
-class World {
-    private static final int WORLD_WIDTH = 150;
-    private static final int WORLD_HEIGHT = 80;
-    public static final int TILE_SIZE = 16;
-    
-    private TileType[][] tiles;
-    private SimplexNoise heightNoise;
-    private SimplexNoise caveNoise;
-    private Random random;
-    
-    public World(long seed) {
-        tiles = new TileType[WORLD_WIDTH][WORLD_HEIGHT];
-        heightNoise = new SimplexNoise(seed);
-        caveNoise = new SimplexNoise(seed + 1000);
-        random = new Random(seed);
-        generateWorld();
+// NEW: Field-of-view shadows from LAMP and TORCH tiles, cached per light
+class ShadowCaster {
+    private static final int MAX_SHADOW_ALPHA = 140;
+    
+    // Octant transforms for recursive shadowcasting: xx, xy, yx, yy
+    private static final int[][] OCTANTS = {
+        {1, 0, 0, 1}, {0, 1, 1, 0}, {0, -1, 1, 0}, {-1, 0, 0, 1},
+        {-1, 0, 0, -1}, {0, -1, -1, 0}, {0, 1, -1, 0}, {1, 0, 0, -1}
+    };
+    private static final Color[] SHADOW_COLORS = new Color[MAX_SHADOW_ALPHA + 1];
+    
+    static {
+        for (int alpha = 0; alpha <= MAX_SHADOW_ALPHA; alpha++) {
+            SHADOW_COLORS[alpha] = new Color(0, 0, 0, alpha);
+        }
     }
     
-    private void generateWorld() {
-        generateTerrain();
-        generateCaves();
-        placeOres();
-        placeLava();
-        placeTorches(); // New: Add some torches for lighting
+    // One light source and the tiles it can see
+    private static class Light {
+        final int x, y, level, radius, side;
+        final boolean[] visible; // [(dy + radius) * side + (dx + radius)]
+        int key = Integer.MIN_VALUE; // Sum of chunk versions the result was computed from
+        
+        Light(int x, int y, int level) {
+            this.x = x;
+            this.y = y;
+            this.level = level;
+            this.radius = level - 1;
+            this.side = radius * 2 + 1;
+            this.visible = new boolean[side * side];
+        }
     }
     
-    private void generateTerrain() {
-        for (int x = 0; x < WORLD_WIDTH; x++) {
-            double heightValue = heightNoise.noise(x * 0.01, 0) * 0.5 + 0.5;
-            int surfaceHeight = (int) (20 + heightValue * 15);
-            
-            for (int y = 0; y < WORLD_HEIGHT; y++) {
-                if (y < surfaceHeight) {
-                    tiles[x][y] = TileType.AIR;
-                } else if (y < surfaceHeight + 1) {
-                    tiles[x][y] = TileType.GRASS;
-                } else if (y < surfaceHeight + 4) {
-                    tiles[x][y] = TileType.DIRT;
-                } else {
-                    tiles[x][y] = TileType.STONE;
-                }
-            }
-        }
+    private final World world;
+    private final LightingSystem lighting;
+    private final List<Light> lights = new ArrayList<>();
+    private int scannedWorldVersion = -1;
+    
+    // Per-frame strength grids over the visible tiles
+    private int[] litStrength = new int[0];
+    private int[] occludedStrength = new int[0];
+    
+    public ShadowCaster(World world, LightingSystem lighting) {
+        this.world = world;
+        this.lighting = lighting;
     }
     
-    private void generateCaves() {
-        for (int x = 0; x < WORLD_WIDTH; x++) {
-            for (int y = 25; y < WORLD_HEIGHT - 5; y++) {
-                double caveValue = caveNoise.noise(x * 0.05, y * 0.05);
-                if (caveValue > 0.2) {
-                    tiles[x][y] = TileType.AIR;
+    // Rebuild the light list only when the world has been edited, keeping cached results
+    private void refreshLights() {
+        if (world.getVersion() == scannedWorldVersion) {
+            return;
+        }
+        scannedWorldVersion = world.getVersion();
+        
+        java.util.Map<Integer, Light> old = new java.util.HashMap<>();
+        for (Light light : lights) {
+            old.put(light.y * world.getWorldWidth() + light.x, light);
+        }
+        lights.clear();
+        for (int x = 0; x < world.getWorldWidth(); x++) {
+            for (int y = 0; y < world.getWorldHeight(); y++) {
+                TileType tile = world.getTile(x, y);
+                if (tile == TileType.LAMP || tile == TileType.TORCH) {
+                    Light light = old.get(y * world.getWorldWidth() + x);
+                    lights.add(light != null && light.level == tile.getLightLevel() ?
+                               light : new Light(x, y, tile.getLightLevel()));
                 }
             }
         }
     }
     
-    private void placeOres() {
-        for (int x = 0; x < WORLD_WIDTH; x++) {
-            for (int y = 30; y < WORLD_HEIGHT; y++) {
-                if (tiles[x][y] == TileType.STONE) {
-                    random.setSeed(x * 12345L + y * 67890L);
-                    double oreChance = random.nextDouble();
-                    
-                    if (oreChance < 0.008 && y > 55) {
-                        tiles[x][y] = TileType.GOLD_ORE;
-                    } else if (oreChance < 0.025 && y > 40) {
-                        tiles[x][y] = TileType.IRON_ORE;
-                    } else if (oreChance < 0.06 && y > 30) {
-                        tiles[x][y] = TileType.COAL_ORE;
-                    }
-                }
+    // Recompute a light's field of view if any chunk inside its radius has changed
+    private void updateVisibility(Light light) {
+        int key = 0;
+        int startCX = Math.max(0, (light.x - light.radius) / World.CHUNK_SIZE);
+        int endCX = Math.min(World.CHUNKS_X - 1, (light.x + light.radius) / World.CHUNK_SIZE);
+        int startCY = Math.max(0, (light.y - light.radius) / World.CHUNK_SIZE);
+        int endCY = Math.min(World.CHUNKS_Y - 1, (light.y + light.radius) / World.CHUNK_SIZE);
+        for (int cy = startCY; cy <= endCY; cy++) {
+            for (int cx = startCX; cx <= endCX; cx++) {
+                key += world.getChunkVersion(cy * World.CHUNKS_X + cx);
             }
         }
+        if (key == light.key) {
+            return;
+        }
+        light.key = key;
+        
+        java.util.Arrays.fill(light.visible, false);
+        light.visible[light.radius * light.side + light.radius] = true;
+        for (int[] octant : OCTANTS) {
+            castLight(light, 1, 1.0f, 0.0f, octant[0], octant[1], octant[2], octant[3]);
+        }
     }
     
-    private void placeLava() {
-        for (int x = 0; x < WORLD_WIDTH; x++) {
-            for (int y = WORLD_HEIGHT - 10; y < WORLD_HEIGHT; y++) {
-                if (tiles[x][y] == TileType.AIR) {
-                    random.setSeed(x * 54321L + y * 98765L);
-                    if (random.nextDouble() < 0.3) {
-                        tiles[x][y] = TileType.LAVA;
+    // Recursive shadowcasting over one octant
+    private void castLight(Light light, int row, float start, float end, int xx, int xy, int yx, int yy) {
+        if (start < end) {
+            return;
+        }
+        int radius = light.radius;
+        float newStart = 0.0f;
+        for (int distance = row; distance <= radius; distance++) {
+            boolean blocked = false;
+            for (int deltaX = -distance, deltaY = -distance; deltaX <= 0; deltaX++) {
+                float leftSlope = (deltaX - 0.5f) / (deltaY + 0.5f);
+                float rightSlope = (deltaX + 0.5f) / (deltaY - 0.5f);
+                if (start < rightSlope) {
+                    continue;
+                } else if (end > leftSlope) {
+                    break;
+                }
+                
+                int dx = deltaX * xx + deltaY * xy;
+                int dy = deltaX * yx + deltaY * yy;
+                if (Math.max(Math.abs(dx), Math.abs(dy)) <= radius) {
+                    light.visible[(dy + radius) * light.side + (dx + radius)] = true;
+                }
+                
+                boolean opaque = lighting.isShadowCaster(light.x + dx, light.y + dy);
+                if (blocked) {
+                    if (opaque) {
+                        newStart = rightSlope;
+                    } else {
+                        blocked = false;
+                        start = newStart;
                     }
+                } else if (opaque && distance < radius) {
+                    blocked = true;
+                    castLight(light, distance + 1, start, leftSlope, xx, xy, yx, yy);
+                    newStart = rightSlope;
                 }
             }
+            if (blocked) {
+                break;
+            }
         }
     }
     
-    private void placeTorches() {
-        // Place some torches in caves for initial lighting
-        for (int x = 1; x < WORLD_WIDTH - 1; x += 20) {
-            for (int y = 25; y < WORLD_HEIGHT - 10; y += 15) {
-                if (tiles[x][y] == TileType.AIR && 
-                    (tiles[x][y + 1] != TileType.AIR || tiles[x - 1][y] != TileType.AIR || tiles[x + 1][y] != TileType.AIR)) {
-                    random.setSeed(x * 11111L + y * 22222L);
-                    if (random.nextDouble() < 0.3) {
-                        tiles[x][y] = TileType.TORCH;
+    // Darken visible tiles that are in a light's range but hidden from it (and from every closer light)
+    public void draw(Graphics2D g2d, int startX, int endX, int startY, int endY, int cameraX, int cameraY) {
+        refreshLights();
+        
+        int width = endX - startX;
+        int height = endY - startY;
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (litStrength.length < width * height) {
+            litStrength = new int[width * height];
+            occludedStrength = new int[width * height];
+        }
+        java.util.Arrays.fill(litStrength, 0, width * height, 0);
+        java.util.Arrays.fill(occludedStrength, 0, width * height, 0);
+        
+        boolean anyLight = false;
+        for (Light light : lights) {
+            // Skip lights whose radius doesn't reach the screen
+            if (light.x + light.radius < startX || light.x - light.radius >= endX ||
+                light.y + light.radius < startY || light.y - light.radius >= endY) {
+                continue;
+            }
+            anyLight = true;
+            updateVisibility(light);
+            
+            int fromX = Math.max(startX, light.x - light.radius), toX = Math.min(endX - 1, light.x + light.radius);
+            int fromY = Math.max(startY, light.y - light.radius), toY = Math.min(endY - 1, light.y + light.radius);
+            for (int y = fromY; y <= toY; y++) {
+                for (int x = fromX; x <= toX; x++) {
+                    int dx = x - light.x, dy = y - light.y;
+                    int strength = light.level - Math.max(Math.abs(dx), Math.abs(dy));
+                    int cell = (y - startY) * width + (x - startX);
+                    if (light.visible[(dy + light.radius) * light.side + (dx + light.radius)]) {
+                        litStrength[cell] = Math.max(litStrength[cell], strength);
+                    } else {
+                        occludedStrength[cell] = Math.max(occludedStrength[cell], strength);
                     }
                 }
             }
         }
-    }
-    
-    public TileType getTile(int x, int y) {
-        if (x < 0 || x >= WORLD_WIDTH || y < 0 || y >= WORLD_HEIGHT) {
-            return TileType.STONE;
+        if (!anyLight) {
+            return;
         }
-        return tiles[x][y];
-    }
-    
-    public void setTile(int x, int y, TileType type) {
-        if (x >= 0 && x < WORLD_WIDTH && y >= 0 && y < WORLD_HEIGHT) {
-            tiles[x][y] = type;
+        
+        for (int y = startY; y < endY; y++) {
+            for (int x = startX; x < endX; x++) {
+                int cell = (y - startY) * width + (x - startX);
+                int shadow = occludedStrength[cell] - litStrength[cell];
+                if (shadow > 0) {
+                    g2d.setColor(SHADOW_COLORS[shadow * MAX_SHADOW_ALPHA / 15]);
+                    g2d.fillRect(x * World.TILE_SIZE - cameraX, y * World.TILE_SIZE - cameraY,
+                                 World.TILE_SIZE, World.TILE_SIZE);
+                }
+            }
         }
     }
-    
-    public boolean isSolid(int x, int y) {
-        return getTile(x, y).isSolid();
-    }
-    
-    public boolean isDamaging(int x, int y) {
-        return getTile(x, y).isDamaging();
-    }
-    
-    public int getWorldWidth() { return WORLD_WIDTH; }
-    public int getWorldHeight() { return WORLD_HEIGHT; }
 }
 
 class Camera {
@@ -1107,7 +3839,7 @@ class Camera {
     public int getY() { return y; }
 }
 
-class Player {
+class Player implements WorldDrawable {
     private float x;
     private float y;
     private float velocityX;
@@ -1121,10 +3853,18 @@ class Player {
     private ItemStack[] inventory = new ItemStack[36];
     private ItemStack[] hotbar = new ItemStack[9];
     private int selectedSlot = 0;
+    private int inventoryVersion = 0; // Bumped whenever item counts change
+    
+    // Workbench proximity cache (only rescanned when the player tile or the world changes)
+    private int workbenchCheckTileX = Integer.MIN_VALUE;
+    private int workbenchCheckTileY = Integer.MIN_VALUE;
+    private int workbenchCheckWorldVersion = -1;
+    private boolean nearWorkbench = false;
     
     // Health system
     private int health = 100;
     private int maxHealth = 100;
+    private double clock = 0; // Simulation time in seconds, advanced by update
     private long lastDamageTime = 0;
     private long lastRegenTime = 0;
     private static final long DAMAGE_COOLDOWN = 1000;
@@ -1132,11 +3872,13 @@ class Player {
     private static final int REGEN_AMOUNT = 5;
     
     private boolean isInvulnerable = false;
-    private int invulnerabilityFlashTimer = 0;
+    private float invulnerabilityFlashTime = 0;          // Seconds spent flashing
+    private static final float FLASH_PERIOD = 1 / 6f;    // Seconds per visible/hidden cycle
     
-    private static final float GRAVITY = 0.5f;
-    private static final float JUMP_STRENGTH = -12.0f;
-    private static final float MOVE_SPEED = 3.0f;
+    // Physics in pixels per second (squared for gravity)
+    private static final float GRAVITY = 1800f;
+    private static final float JUMP_STRENGTH = -720f;
+    private static final float MOVE_SPEED = 180f;
     
     public Player(float startX, float startY, World world) {
         this.x = startX;
@@ -1160,26 +3902,29 @@ class Player {
         collectItem(TileType.LAMP, 5); // NEW: Give 5 lamps to start!
     }
     
-    public void update() {
-        updatePhysics();
+    public void update(float dt) {
+        clock += dt;
+        updatePhysics(dt);
         updateHealth();
-        updateVisualEffects();
+        updateVisualEffects(dt);
         checkEnvironmentalDamage();
     }
     
-    private void updatePhysics() {
-        if (!onGround) {
-            velocityY += GRAVITY;
-        }
+    private void updatePhysics(float dt) {
+        // Gravity also applies on the ground: the small downward move is what keeps onGround
+        // set on every tick, whatever the tick rate. Moving by the average velocity over the
+        // tick makes jump height independent of dt.
+        float startVelocityY = velocityY;
+        velocityY += GRAVITY * dt;
         
-        moveHorizontal(velocityX);
-        moveVertical(velocityY);
+        moveHorizontal(velocityX * dt);
+        moveVertical((startVelocityY + velocityY) * 0.5f * dt);
         
         velocityX = 0;
     }
     
     private void updateHealth() {
-        long currentTime = System.currentTimeMillis();
+        long currentTime = getClockMillis();
         
         if (health < maxHealth && currentTime - lastRegenTime > HEALTH_REGEN_INTERVAL) {
             heal(REGEN_AMOUNT);
@@ -1191,11 +3936,11 @@ class Player {
         }
     }
     
-    private void updateVisualEffects() {
+    private void updateVisualEffects(float dt) {
         if (isInvulnerable) {
-            invulnerabilityFlashTimer++;
+            invulnerabilityFlashTime += dt;
         } else {
-            invulnerabilityFlashTimer = 0;
+            invulnerabilityFlashTime = 0;
         }
     }
     
@@ -1209,7 +3954,7 @@ class Player {
     }
     
     public boolean takeDamage(int damage) {
-        long currentTime = System.currentTimeMillis();
+        long currentTime = getClockMillis();
         
         if (!isInvulnerable) {
             health = Math.max(0, health - damage);
@@ -1227,7 +3972,11 @@ class Player {
     
     public void heal(int healAmount) {
         health = Math.min(maxHealth, health + healAmount);
-        lastRegenTime = System.currentTimeMillis();
+        lastRegenTime = getClockMillis();
+    }
+    
+    private long getClockMillis() {
+        return (long) (clock * 1000);
     }
     
     private void die() {
@@ -1303,20 +4052,32 @@ class Player {
         int playerTileX = (int) (x / World.TILE_SIZE);
         int playerTileY = (int) (y / World.TILE_SIZE);
         
-        for (int dx = -5; dx <= 5; dx++) {
+        // Reuse the last scan while neither the player tile nor the world has changed
+        if (playerTileX == workbenchCheckTileX && playerTileY == workbenchCheckTileY &&
+            world.getVersion() == workbenchCheckWorldVersion) {
+            return nearWorkbench;
+        }
+        workbenchCheckTileX = playerTileX;
+        workbenchCheckTileY = playerTileY;
+        workbenchCheckWorldVersion = world.getVersion();
+        
+        nearWorkbench = false;
+        for (int dx = -5; dx <= 5 && !nearWorkbench; dx++) {
             for (int dy = -5; dy <= 5; dy++) {
                 if (world.getTile(playerTileX + dx, playerTileY + dy) == TileType.WORKBENCH) {
-                    return true;
+                    nearWorkbench = true;
+                    break;
                 }
             }
         }
-        return false;
+        return nearWorkbench;
     }
     
     private void updateHotbar() {
         for (int i = 0; i < 9; i++) {
             hotbar[i] = inventory[i];
         }
+        inventoryVersion++;
     }
     
     public ItemStack getSelectedItem() {
@@ -1337,28 +4098,39 @@ class Player {
                 inventory[selectedSlot] = null;
                 hotbar[selectedSlot] = null;
             }
+            inventoryVersion++;
             return true;
         }
         return false;
     }
     
+    // Moves in steps of at most MAX_STEP so low tick rates cannot skip through a tile
     private void moveHorizontal(float deltaX) {
-        x += deltaX;
-        if (checkCollision()) {
-            x -= deltaX;
+        int steps = (int) Math.ceil(Math.abs(deltaX) / World.MAX_STEP);
+        for (int i = 0; i < steps; i++) {
+            float step = deltaX / steps;
+            x += step;
+            if (checkCollision()) {
+                x -= step;
+                return;
+            }
         }
     }
     
     private void moveVertical(float deltaY) {
-        y += deltaY;
-        if (checkCollision()) {
-            y -= deltaY;
-            if (deltaY > 0) {
-                onGround = true;
+        int steps = (int) Math.ceil(Math.abs(deltaY) / World.MAX_STEP);
+        onGround = false;
+        for (int i = 0; i < steps; i++) {
+            float step = deltaY / steps;
+            y += step;
+            if (checkCollision()) {
+                y -= step;
+                if (deltaY > 0) {
+                    onGround = true;
+                }
+                velocityY = 0;
+                return;
             }
-            velocityY = 0;
-        } else {
-            onGround = false;
         }
     }
     
@@ -1382,12 +4154,21 @@ class Player {
         }
     }
     
+    @Override
+    public int getDrawLayer() { return DrawList.LAYER_PLAYER; }
+    
+    @Override
+    public boolean intersects(int left, int top, int right, int bottom) {
+        return x < right && x + width + 1 > left && y < bottom && y + height + 1 > top;
+    }
+    
+    @Override
     public void draw(Graphics2D g2d, Camera camera, LightingSystem lighting, float ambientLight) {
         int drawX = (int) (x - camera.getX());
         int drawY = (int) (y - camera.getY());
         
         // Skip drawing during invulnerability flash
-        if (isInvulnerable && invulnerabilityFlashTimer % 10 < 5) {
+        if (isInvulnerable && invulnerabilityFlashTime % FLASH_PERIOD < FLASH_PERIOD / 2) {
             return;
         }
         
@@ -1413,17 +4194,407 @@ class Player {
     public int getHealth() { return health; }
     public int getMaxHealth() { return maxHealth; }
     public boolean isInvulnerable() { return isInvulnerable; }
+    public int getInventoryVersion() { return inventoryVersion; }
+}
+
+// NEW: Scrollable crafting menu that only draws the rows currently on screen
+class CraftingMenu {
+    static final int MENU_WIDTH = 500;
+    static final int MENU_HEIGHT = 400;
+    private static final int ROW_WIDTH = MENU_WIDTH - 40;
+    private static final int ROW_HEIGHT = 60;
+    private static final int ROW_STRIDE = ROW_HEIGHT + 10;
+    private static final int LIST_TOP = 80; // Offset of the first row from the menu top
+    private static final int LIST_HEIGHT = MENU_HEIGHT - LIST_TOP - 10;
+    private static final int SCROLL_STEP = ROW_STRIDE / 2;
+    
+    // Enough cached rows to cover the viewport plus a partially visible row at each end
+    private static final int ROW_SLOTS = LIST_HEIGHT / ROW_STRIDE + 2;
+    
+    private static final int STATE_MISSING = 0;
+    private static final int STATE_CRAFTABLE = 1;
+    private static final int STATE_SELECTED = 2;
+    
+    private static final Font TITLE_FONT = new Font("Arial", Font.BOLD, 24);
+    private static final Font NAME_FONT = new Font("Arial", Font.BOLD, 16);
+    private static final Font QUANTITY_FONT = new Font("Arial", Font.BOLD, 12);
+    private static final Font TEXT_FONT = new Font("Arial", Font.PLAIN, 12);
+    private static final Color OVERLAY_COLOR = new Color(0, 0, 0, 180);
+    private static final Color PANEL_COLOR = new Color(50, 50, 50);
+    private static final Color SELECTED_COLOR = new Color(100, 150, 255, 100);
+    private static final Color CRAFTABLE_COLOR = new Color(50, 100, 50, 100);
+    private static final Color MISSING_COLOR = new Color(100, 50, 50, 100);
+    private static final Color SCROLLBAR_COLOR = new Color(200, 200, 200, 120);
+    private static final BasicStroke PANEL_STROKE = new BasicStroke(2);
+    
+    private final CraftingSystem craftingSystem;
+    private final Player player;
+    
+    // Cached recipe list, rebuilt only when the inventory or workbench proximity changes
+    private final List<CraftingRecipe> recipes = new ArrayList<>();
+    private boolean[] craftable = new boolean[0];
+    private int cachedInventoryVersion = -1;
+    private boolean cachedNearWorkbench = false;
+    private boolean dirty = true;
+    
+    // Row images are kept in a small ring, slot = recipe index % ROW_SLOTS
+    private final BufferedImage[] rowImages = new BufferedImage[ROW_SLOTS];
+    private final int[] rowRecipe = new int[ROW_SLOTS];
+    private final int[] rowState = new int[ROW_SLOTS];
+    private final boolean[] rowCraftable = new boolean[ROW_SLOTS]; // Name colour, also when selected
+    
+    private int selectedRecipe = 0;
+    private int scrollOffset = 0; // Pixels scrolled from the top of the list
+    
+    public CraftingMenu(CraftingSystem craftingSystem, Player player) {
+        this.craftingSystem = craftingSystem;
+        this.player = player;
+        invalidateRows();
+    }
+    
+    public void reset() {
+        selectedRecipe = 0;
+        scrollOffset = 0;
+        dirty = true;
+    }
+    
+    public void scroll(int notches) {
+        refresh();
+        scrollOffset = Math.max(0, Math.min(getMaxScroll(), scrollOffset + notches * SCROLL_STEP));
+    }
+    
+    private int getMaxScroll() {
+        return Math.max(0, recipes.size() * ROW_STRIDE - 10 - LIST_HEIGHT);
+    }
+    
+    // Re-evaluate recipes only if something they depend on has changed
+    private void refresh() {
+        boolean nearWorkbench = player.isNearWorkbench();
+        int inventoryVersion = player.getInventoryVersion();
+        if (!dirty && nearWorkbench == cachedNearWorkbench && inventoryVersion == cachedInventoryVersion) {
+            return;
+        }
+        
+        if (dirty || nearWorkbench != cachedNearWorkbench) {
+            craftingSystem.collectAvailableRecipes(nearWorkbench, recipes);
+            if (craftable.length < recipes.size()) {
+                craftable = new boolean[recipes.size()];
+            }
+            invalidateRows();
+            selectedRecipe = Math.min(selectedRecipe, Math.max(0, recipes.size() - 1));
+            scrollOffset = Math.min(scrollOffset, getMaxScroll());
+        }
+        for (int i = 0; i < recipes.size(); i++) {
+            craftable[i] = recipes.get(i).canCraft(player);
+        }
+        
+        cachedNearWorkbench = nearWorkbench;
+        cachedInventoryVersion = inventoryVersion;
+        dirty = false;
+    }
+    
+    private void invalidateRows() {
+        for (int i = 0; i < ROW_SLOTS; i++) {
+            rowRecipe[i] = -1;
+        }
+    }
+    
+    public void draw(Graphics2D g2d, int windowWidth, int windowHeight) {
+        refresh();
+        
+        // Semi-transparent background overlay
+        g2d.setColor(OVERLAY_COLOR);
+        g2d.fillRect(0, 0, windowWidth, windowHeight);
+        
+        int menuX = (windowWidth - MENU_WIDTH) / 2;
+        int menuY = (windowHeight - MENU_HEIGHT) / 2;
+        
+        g2d.setColor(PANEL_COLOR);
+        g2d.fillRect(menuX, menuY, MENU_WIDTH, MENU_HEIGHT);
+        g2d.setColor(Color.WHITE);
+        g2d.setStroke(PANEL_STROKE);
+        g2d.drawRect(menuX, menuY, MENU_WIDTH, MENU_HEIGHT);
+        
+        // Title
+        g2d.setFont(TITLE_FONT);
+        g2d.drawString(cachedNearWorkbench ? "CRAFTING (Workbench)" : "CRAFTING (Basic)", menuX + 20, menuY + 35);
+        
+        // Instructions
+        g2d.setFont(TEXT_FONT);
+        g2d.drawString("Click on a recipe to craft | Scroll to browse | Press C to close", menuX + 20, menuY + 55);
+        
+        // No recipes message
+        if (recipes.isEmpty()) {
+            g2d.setFont(NAME_FONT);
+            String msg = cachedNearWorkbench ?
+                        "All recipes available! Gather materials to craft." :
+                        "Build a WORKBENCH (4 Stone) to unlock more recipes!";
+            g2d.drawString(msg, menuX + 50, menuY + 150);
+            return;
+        }
+        
+        // Draw only the rows that intersect the list viewport
+        int listX = menuX + 20;
+        int listY = menuY + LIST_TOP;
+        int first = scrollOffset / ROW_STRIDE;
+        int last = Math.min(recipes.size() - 1, (scrollOffset + LIST_HEIGHT) / ROW_STRIDE);
+        
+        Shape oldClip = g2d.getClip();
+        g2d.clipRect(listX, listY, ROW_WIDTH + 1, LIST_HEIGHT);
+        for (int i = first; i <= last; i++) {
+            g2d.drawImage(getRowImage(i), listX, listY + i * ROW_STRIDE - scrollOffset, null);
+        }
+        g2d.setClip(oldClip);
+        
+        // Scrollbar, only when the list is longer than the viewport
+        int maxScroll = getMaxScroll();
+        if (maxScroll > 0) {
+            int trackHeight = LIST_HEIGHT;
+            int thumbHeight = Math.max(20, trackHeight * LIST_HEIGHT / (LIST_HEIGHT + maxScroll));
+            int thumbY = listY + (trackHeight - thumbHeight) * scrollOffset / maxScroll;
+            g2d.setColor(SCROLLBAR_COLOR);
+            g2d.fillRect(menuX + MENU_WIDTH - 14, thumbY, 6, thumbHeight);
+        }
+    }
+    
+    private BufferedImage getRowImage(int index) {
+        int slot = index % ROW_SLOTS;
+        int state = index == selectedRecipe ? STATE_SELECTED :
+                    craftable[index] ? STATE_CRAFTABLE : STATE_MISSING;
+        
+        if (rowRecipe[slot] == index && rowState[slot] == state && rowCraftable[slot] == craftable[index]) {
+            return rowImages[slot];
+        }
+        
+        if (rowImages[slot] == null) {
+            rowImages[slot] = new BufferedImage(ROW_WIDTH + 1, ROW_HEIGHT + 1, BufferedImage.TYPE_INT_ARGB);
+        }
+        renderRow(rowImages[slot], recipes.get(index), state, craftable[index]);
+        rowRecipe[slot] = index;
+        rowState[slot] = state;
+        rowCraftable[slot] = craftable[index];
+        return rowImages[slot];
+    }
+    
+    private void renderRow(BufferedImage image, CraftingRecipe recipe, int state, boolean canCraft) {
+        Graphics2D g = image.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setComposite(AlphaComposite.SrcOver);
+        
+        // Background for recipe (highlight selected or craftable)
+        g.setColor(state == STATE_SELECTED ? SELECTED_COLOR :
+                   state == STATE_CRAFTABLE ? CRAFTABLE_COLOR : MISSING_COLOR);
+        g.fillRect(0, 0, ROW_WIDTH, ROW_HEIGHT);
+        
+        // Border
+        g.setColor(state == STATE_SELECTED ? Color.CYAN : Color.WHITE);
+        g.drawRect(0, 0, ROW_WIDTH, ROW_HEIGHT);
+        
+        // Recipe name and result
+        g.setColor(canCraft ? Color.WHITE : Color.GRAY);
+        g.setFont(NAME_FONT);
+        g.drawString(recipe.getName(), 10, 25);
+        
+        // Result display
+        g.setColor(recipe.getResult().getColor());
+        g.fillRect(350, 10, 40, 40);
+        g.setColor(Color.WHITE);
+        g.drawRect(350, 10, 40, 40);
+        g.setFont(QUANTITY_FONT);
+        g.drawString("x" + recipe.getResultQuantity(), 400, 35);
+        
+        // Ingredients
+        g.setFont(TEXT_FONT);
+        g.drawString(recipe.getIngredientsText(), 10, 45);
+        
+        // Workbench requirement
+        if (recipe.requiresWorkbench()) {
+            g.setColor(Color.YELLOW);
+            g.drawString("[Workbench Required]", 10, 58);
+        }
+        g.dispose();
+    }
+    
+    // Selects the clicked row and returns its recipe, or null if no row was hit.
+    // Crafting itself is left to the game thread.
+    public CraftingRecipe handleClick(int mouseX, int mouseY, int windowWidth, int windowHeight) {
+        int menuX = (windowWidth - MENU_WIDTH) / 2;
+        int menuY = (windowHeight - MENU_HEIGHT) / 2;
+        if (mouseX < menuX || mouseX > menuX + MENU_WIDTH ||
+            mouseY < menuY || mouseY > menuY + MENU_HEIGHT) {
+            return null;
+        }
+        
+        refresh();
+        
+        // Map the click straight to a row instead of walking the whole list
+        int listY = mouseY - (menuY + LIST_TOP);
+        if (listY < 0 || listY >= LIST_HEIGHT) {
+            return null;
+        }
+        int contentY = listY + scrollOffset;
+        int index = contentY / ROW_STRIDE;
+        if (index >= recipes.size() || contentY % ROW_STRIDE > ROW_HEIGHT) {
+            return null;
+        }
+        
+        selectedRecipe = index;
+        return recipes.get(index);
+    }
+}
+
+// NEW: Screenshots and frame recording, PNG encoding happens on a background thread
+class FrameCapture implements Runnable {
+    private static final int POOL_SIZE = 6; // Frames that can be waiting for the encoder at once
+    private static final File CAPTURE_DIR = new File("captures");
+    
+    private static class Job {
+        final BufferedImage image;
+        final File file;
+        
+        Job(BufferedImage image, File file) {
+            this.image = image;
+            this.file = file;
+        }
+    }
+    
+    private final BlockingQueue<BufferedImage> freeImages = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<Job> pending = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final int width, height;
+    private volatile int imagesCreated = 0;
+    
+    private volatile boolean screenshotRequested = false;
+    private volatile boolean recording = false;
+    private File recordingDir;
+    private int recordedFrames = 0;
+    private int droppedFrames = 0;
+    private int screenshotCount = 0;
+    
+    public FrameCapture(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+    
+    // Started with the game loop, so headless runs never spawn the thread
+    public void start() {
+        Thread encoderThread = new Thread(this, "frame-capture");
+        encoderThread.setDaemon(true);
+        encoderThread.start();
+    }
+    
+    public void requestScreenshot() {
+        screenshotRequested = true;
+    }
+    
+    public void toggleRecording() {
+        if (recording) {
+            recording = false;
+            System.out.println("Recording stopped: " + recordedFrames + " frames saved, " +
+                               droppedFrames + " dropped");
+        } else {
+            recordingDir = new File(CAPTURE_DIR, "recording-" + System.currentTimeMillis());
+            recordedFrames = 0;
+            droppedFrames = 0;
+            recording = true;
+            System.out.println("Recording to " + recordingDir.getPath());
+        }
+    }
+    
+    public boolean isCapturePending() {
+        return screenshotRequested || recording;
+    }
+    
+    public boolean isRecording() { return recording; }
+    
+    // Render thread: get an image to draw this frame into, or null if the encoder is behind
+    public BufferedImage acquire() {
+        BufferedImage image = freeImages.poll();
+        if (image == null && imagesCreated < POOL_SIZE) {
+            imagesCreated++;
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        if (image == null) {
+            droppedFrames++;
+        }
+        return image;
+    }
+    
+    // Render thread: queue a filled image for encoding, never blocks
+    public void submit(BufferedImage image) {
+        File file;
+        if (screenshotRequested) {
+            screenshotRequested = false;
+            screenshotCount++;
+            file = new File(CAPTURE_DIR, String.format("screenshot-%d-%03d.png",
+                            System.currentTimeMillis(), screenshotCount));
+        } else if (recording) {
+            recordedFrames++;
+            file = new File(recordingDir, String.format("frame-%06d.png", recordedFrames));
+        } else {
+            freeImages.offer(image);
+            return;
+        }
+        
+        if (!pending.offer(new Job(image, file))) {
+            droppedFrames++;
+            freeImages.offer(image);
+        }
+    }
+    
+    @Override
+    public void run() {
+        while (true) {
+            Job job;
+            try {
+                job = pending.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            
+            try {
+                job.file.getParentFile().mkdirs();
+                ImageIO.write(job.image, "png", job.file);
+            } catch (IOException e) {
+                System.out.println("Failed to save " + job.file.getPath() + ": " + e.getMessage());
+            }
+            freeImages.offer(job.image);
+        }
+    }
+    
+    // Give the encoder a moment to finish queued frames before exit
+    public void flush(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (imagesCreated > freeImages.size() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
 }
 
-public class CraftingGame extends JPanel implements Runnable, KeyListener, MouseListener {
+public class CraftingGame extends JPanel implements Runnable, KeyListener, MouseListener, MouseWheelListener {
     
     private static final int WINDOW_WIDTH = 800;
     private static final int WINDOW_HEIGHT = 600;
     private static final int TARGET_FPS = 60;
-    private static final long TARGET_TIME = 1000000000 / TARGET_FPS;
+    private static final long FRAME_NANOS = 1000000000L / TARGET_FPS;
+    private static final int[] TICK_RATES = {20, 30, 60, 120}; // Supported simulation rates (TPS)
+    private static final int MAX_CATCH_UP_TICKS = 5;    // Beyond this, drop time instead of spiralling
+    private static final long SPIN_NANOS = 1000000;     // Final stretch before a tick is busy-waited
+    private static final float[] RENDER_SCALES = {1.0f, 0.75f, 0.5f}; // Cycled with R
+    private static final float NIGHT_SPAWN_RATE = 0.06f; // Average enemy spawns per second at night
     
     private boolean running = false;
     private Thread gameThread;
+    private final long seed;
+    private final Random gameRandom; // All simulation randomness, so replays are exact
+    private long tick = 0;           // Ticks simulated so far
+    private InputRecording recording; // Non-null while recording (-Dgame.record)
+    private volatile int tickRate = 60; // Simulation ticks per second, independent of TARGET_FPS
     private World world;
     private Player player;
     private Camera camera;
@@ -1433,26 +4604,63 @@ public class CraftingGame extends JPanel implements Runnable, KeyListener, Mouse
     private LightingSystem lightingSystem;
     private ParallaxLayer[] parallaxLayers;
     private CelestialBodies celestialBodies;
+    private TileRenderer tileRenderer;
+    private ChunkCache chunkCache;
+    private ChunkPrefetcher chunkPrefetcher;
+    private ShadowCaster shadowCaster;
+    private ParticleSystem particles;
+    private WeatherSystem weatherSystem;
+    private float lastAmbientLight = -1;
+    private boolean lastNight = false;
+    private final DrawList drawList = new DrawList();
+    private final Profiler tickProfiler = new Profiler(Profiler.TICK_NAMES);
+    private final Profiler frameProfiler = new Profiler(Profiler.FRAME_NAMES);
+    private final ProfilerOverlay profilerOverlay = new ProfilerOverlay(tickProfiler, frameProfiler);
+    private volatile boolean showProfiler = false; // F3
+    private final TimeHistogram tickTimes = new TimeHistogram();   // update() durations
+    private final TimeHistogram frameTimes = new TimeHistogram();  // Time between frames
+    private final HistogramReport histogramReport = new HistogramReport(tickTimes, frameTimes);
+    private long lastFrameStart = 0;
+    private final QualityGovernor qualityGovernor = new QualityGovernor(FRAME_NANOS); // F5
+    private long lastTickTotal = 0; // Tick profiler total at the last frame, to charge ticks that delay one
+    private final FrameCapture frameCapture = new FrameCapture(WINDOW_WIDTH, WINDOW_HEIGHT);
+    
+    // Render scale: the scene is drawn into sceneBuffer at this fraction of the window size
+    private volatile float renderScale = 1.0f;
+    private BufferedImage sceneBuffer;
+    
+    // Screen rows [backgroundTop, backgroundBottom) that are not fully covered by tiles
+    private int backgroundTop = 0;
+    private int backgroundBottom = WINDOW_HEIGHT;
     
     // NEW: Crafting System
     private CraftingSystem craftingSystem;
+    private CraftingMenu craftingMenu;
     private boolean craftingMenuOpen = false;
-    private int selectedRecipe = 0;
     
+    // Input from the EDT, applied by the game thread at the start of each tick
+    private final CommandQueue commands = new CommandQueue();
+    
+    // Held keys; owned by the game thread
     private boolean leftPressed = false;
     private boolean rightPressed = false;
     private boolean spacePressed = false;
-    
-    private long lastFrameTime = System.currentTimeMillis();
+    private boolean jumpRequested = false; // Set by any jump press, so taps shorter than a tick still jump
     
     public CraftingGame() {
+        this(System.currentTimeMillis());
+    }
+    
+    public CraftingGame(long seed) {
         setPreferredSize(new Dimension(WINDOW_WIDTH, WINDOW_HEIGHT));
         setBackground(Color.BLACK);
         setFocusable(true);
         addKeyListener(this);
         addMouseListener(this);
+        addMouseWheelListener(this);
         
-        long seed = System.currentTimeMillis();
+        this.seed = seed;
+        gameRandom = new Random(seed + 7);
         world = new World(seed);
         player = new Player(World.TILE_SIZE * 75, World.TILE_SIZE * 10, world);
         camera = new Camera(WINDOW_WIDTH, WINDOW_HEIGHT);
@@ -1461,6 +4669,14 @@ public class CraftingGame extends JPanel implements Runnable, KeyListener, Mouse
         timeSystem = new TimeSystem();
         lightingSystem = new LightingSystem(world.getWorldWidth(), world.getWorldHeight(), world);
         celestialBodies = new CelestialBodies();
+        SmoothLighting smoothLighting = new SmoothLighting(world, lightingSystem);
+        tileRenderer = new TileRenderer(world, lightingSystem, smoothLighting);
+        chunkCache = new ChunkCache(world, lightingSystem, 32);
+        shadowCaster = new ShadowCaster(world, lightingSystem);
+        particles = new ParticleSystem(world);
+        weatherSystem = new WeatherSystem(world, seed + 5);
+        chunkPrefetcher = new ChunkPrefetcher(chunkCache, world, lightingSystem, smoothLighting,
+                                              WINDOW_WIDTH, WINDOW_HEIGHT);
         
         // Initialize parallax background layers (farthest to closest)
         parallaxLayers = new ParallaxLayer[] {
@@ -1474,23 +4690,59 @@ public class CraftingGame extends JPanel implements Runnable, KeyListener, Mouse
         
         // NEW: Initialize crafting system
         craftingSystem = new CraftingSystem();
+        craftingMenu = new CraftingMenu(craftingSystem, player);
         
         System.out.println("Crafting System initialized!");
-        System.out.println("Controls: A/D - Move, Space - Jump, 1-9 - Select slot, C - Crafting");
+        System.out.println("Controls: A/D - Move, Space - Jump, 1-9 - Select slot, C - Crafting, R - Render scale");
         System.out.println("NEW: Press C to open crafting menu!");
         System.out.println("Craft Workbench from 4 Stone, then craft advanced items!");
     }
     
     private void spawnEnemies() {
-        Random random = new Random();
         for (int i = 0; i < 3; i++) { // Start with fewer enemies
-            float enemyX = random.nextInt(world.getWorldWidth() * World.TILE_SIZE);
+            float enemyX = gameRandom.nextInt(world.getWorldWidth() * World.TILE_SIZE);
             float enemyY = World.TILE_SIZE * 15;
-            enemies.add(new Enemy(enemyX, enemyY, world, player));
+            enemies.add(new Enemy(enemyX, enemyY, world, player, gameRandom));
+        }
+    }
+    
+    // Record this session's seed and input to file, replayable with --replay
+    public void startRecording(File file) throws IOException {
+        recording = InputRecording.create(file, seed, tickRate);
+        System.out.println("Recording input to " + file.getPath());
+    }
+    
+    private void finishRecording() {
+        if (recording != null) {
+            try {
+                recording.finish(tick, stateChecksum());
+            } catch (IOException e) {
+                System.out.println("Failed to finish recording: " + e.getMessage());
+            }
+            recording = null;
+        }
+    }
+    
+    // Hash of the simulation state, used to check that a replay matched its recording
+    private long stateChecksum() {
+        long hash = seed;
+        hash = hash * 31 + tick;
+        hash = hash * 31 + Float.floatToIntBits(timeSystem.getTimeOfDay());
+        hash = hash * 31 + world.getVersion();
+        hash = hash * 31 + player.getX();
+        hash = hash * 31 + player.getY();
+        hash = hash * 31 + player.getHealth();
+        hash = hash * 31 + player.getInventoryVersion();
+        for (Enemy enemy : enemies) {
+            hash = hash * 31 + enemy.getX();
+            hash = hash * 31 + enemy.getY();
         }
+        return hash;
     }
     
     public void startGame() {
+        chunkPrefetcher.start();
+        frameCapture.start();
         running = true;
         gameThread = new Thread(this);
         gameThread.start();
@@ -1505,125 +4757,485 @@ public class CraftingGame extends JPanel implements Runnable, KeyListener, Mouse
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        finishRecording();
+        histogramReport.dump();
+        histogramReport.close();
+        frameCapture.flush(2000);
     }
     
+    // Fixed-timestep loop: real time is accumulated in nanoseconds and consumed in whole
+    // ticks, so the simulation always advances by exactly 1 / tickRate seconds per update.
+    // Frames are requested at TARGET_FPS whatever the tick rate is.
     @Override
     public void run() {
+        long previous = System.nanoTime();
+        long accumulator = 0;
+        long nextFrame = previous;
         while (running) {
-            long startTime = System.nanoTime();
-            long currentTime = System.currentTimeMillis();
-            long deltaTime = currentTime - lastFrameTime;
-            lastFrameTime = currentTime;
+            int rate = tickRate;
+            long tickNanos = 1000000000L / rate;
+            long now = System.nanoTime();
+            accumulator += now - previous;
+            previous = now;
+            
+            int ticks = 0;
+            while (accumulator >= tickNanos && ticks < MAX_CATCH_UP_TICKS) {
+                update(tickSeconds(rate));
+                accumulator -= tickNanos;
+                ticks++;
+            }
+            if (accumulator >= tickNanos) {
+                accumulator %= tickNanos; // Too far behind (e.g. after a stall), skip the backlog
+            }
             
-            update(deltaTime);
-            repaint();
+            if (now - nextFrame >= 0) {
+                repaint();
+                nextFrame = Math.max(nextFrame + FRAME_NANOS, now); // Don't queue up missed frames
+            }
+            
+            waitUntil(Math.min(now + tickNanos - accumulator, nextFrame));
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+    }
+    
+    // Park for most of the wait, then spin the last part: parking alone overshoots by up to a
+    // millisecond or more depending on the OS timer
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > SPIN_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+        while (deadline - System.nanoTime() > 0) {
+            Thread.yield();
+        }
+    }
+    
+    // Advance the simulation by dt seconds (one tick)
+    private void update(float dt) {
+        // Not created at all when disabled: update() is too big for the JIT to always remove it
+        GameTickEvent tickEvent = FlightEvents.active() && GameTickEvent.TYPE.isEnabled() ?
+                                  new GameTickEvent() : null;
+        if (tickEvent != null) {
+            tickEvent.begin();
+        }
+        tickProfiler.begin();
+        
+        tick++;
+        processCommands();
+        tickProfiler.mark(Profiler.INPUT);
+        
+        // Update time system
+        timeSystem.update(dt);
+        celestialBodies.updateClouds(dt);
+        tickProfiler.mark(Profiler.TIME);
+        
+        // Update lighting
+        lightingSystem.calculateLighting(timeSystem.getAmbientLight());
+        tickProfiler.mark(Profiler.LIGHTING);
+        
+        // Spawn more enemies at night
+        if (timeSystem.isNight() && enemies.size() < 8 && gameRandom.nextFloat() < NIGHT_SPAWN_RATE * dt) {
+            float enemyX = gameRandom.nextInt(world.getWorldWidth() * World.TILE_SIZE);
+            float enemyY = World.TILE_SIZE * 15;
+            enemies.add(new Enemy(enemyX, enemyY, world, player, gameRandom));
+        }
+        tickProfiler.mark(Profiler.SPAWNING);
+        
+        // Update game objects
+        if (leftPressed) player.moveLeft();
+        if (rightPressed) player.moveRight();
+        if (spacePressed || jumpRequested) player.jump();
+        jumpRequested = false;
+        
+        player.update(dt);
+        camera.update(player.getCenterX(), player.getCenterY());
+        tickProfiler.mark(Profiler.PLAYER);
+        
+        // Update enemies
+        Iterator<Enemy> enemyIterator = enemies.iterator();
+        while (enemyIterator.hasNext()) {
+            Enemy enemy = enemyIterator.next();
+            enemy.update(dt);
             
-            long elapsed = System.nanoTime() - startTime;
-            long waitTime = TARGET_TIME - elapsed;
+            if (enemy.isDead()) {
+                enemyIterator.remove();
+            }
+        }
+        tickProfiler.mark(Profiler.ENEMIES);
+        
+        if (tick % qualityGovernor.getDynamicLightInterval() == 0) {
+            updateDynamicLights();
+        }
+        tickProfiler.mark(Profiler.DYNAMIC_LIGHTS);
+        updateParticles(dt);
+        tickProfiler.mark(Profiler.PARTICLES);
+        weatherSystem.update(dt, timeSystem, camera, WINDOW_WIDTH, WINDOW_HEIGHT);
+        tickProfiler.mark(Profiler.WEATHER);
+        
+        // Update damage indicators
+        Iterator<DamageIndicator> indicatorIterator = damageIndicators.iterator();
+        while (indicatorIterator.hasNext()) {
+            DamageIndicator indicator = indicatorIterator.next();
+            indicator.update(dt);
             
-            if (waitTime > 0) {
+            if (indicator.isExpired()) {
+                indicatorIterator.remove();
+            }
+        }
+        tickProfiler.mark(Profiler.INDICATORS);
+        tickProfiler.end();
+        tickTimes.record(tickProfiler.getLastSampleNanos());
+        if (tick % (60L * tickRate) == 0) {
+            histogramReport.writeMinute();
+        }
+        histogramReport.tickFinished();
+        
+        if (tickEvent != null && tickEvent.shouldCommit()) {
+            tickEvent.tick = tick;
+            tickEvent.enemies = enemies.size();
+            tickEvent.particles = particles.getLiveCount();
+            tickEvent.commit();
+        }
+    }
+    
+    private void processCommands() {
+        long command;
+        while ((command = commands.poll()) != CommandQueue.EMPTY) {
+            if (recording != null) {
                 try {
-                    Thread.sleep(waitTime / 1000000);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+                    recording.record(tick, command);
+                } catch (IOException e) {
+                    System.out.println("Recording stopped: " + e.getMessage());
+                    recording = null;
+                }
+            }
+            int a = CommandQueue.argA(command);
+            int b = CommandQueue.argB(command);
+            switch (CommandQueue.type(command)) {
+                case CommandQueue.KEY_DOWN:
+                case CommandQueue.KEY_UP:
+                    boolean down = CommandQueue.type(command) == CommandQueue.KEY_DOWN;
+                    if (a == CommandQueue.KEY_LEFT) {
+                        leftPressed = down;
+                    } else if (a == CommandQueue.KEY_RIGHT) {
+                        rightPressed = down;
+                    } else {
+                        spacePressed = down;
+                        jumpRequested |= down;
+                    }
+                    break;
+                case CommandQueue.SELECT_SLOT:
+                    player.selectSlot(a);
+                    break;
+                case CommandQueue.BREAK_BLOCK:
+                    breakBlock(a, b);
                     break;
+                case CommandQueue.PLACE_BLOCK:
+                    placeBlock(a, b);
+                    break;
+                case CommandQueue.CRAFT:
+                    craftRecipe(a);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+    
+    private void updateParticles(float dt) {
+        // Sparks while the player stands in lava
+        int playerTileX = player.getCenterX() / World.TILE_SIZE;
+        int playerTileY = player.getCenterY() / World.TILE_SIZE;
+        if (world.isDamaging(playerTileX, playerTileY)) {
+            particles.emit(player.getCenterX(), player.getCenterY(), Math.max(1, Math.round(180 * dt)),
+                           ParticleSystem.COLOR_SPARK, 150f, 1.0f, 0.65f);
+        }
+        
+        // Occasional embers rising from torches on screen
+        int startX = Math.max(0, camera.getX() / World.TILE_SIZE);
+        int endX = Math.min(world.getWorldWidth(), (camera.getX() + WINDOW_WIDTH) / World.TILE_SIZE + 1);
+        int startY = Math.max(0, camera.getY() / World.TILE_SIZE);
+        int endY = Math.min(world.getWorldHeight(), (camera.getY() + WINDOW_HEIGHT) / World.TILE_SIZE + 1);
+        for (int x = startX; x < endX; x++) {
+            for (int y = startY; y < endY; y++) {
+                if (world.getTile(x, y) == TileType.TORCH && gameRandom.nextFloat() < 3 * dt) {
+                    particles.emit(x * World.TILE_SIZE + World.TILE_SIZE / 2f, y * World.TILE_SIZE + 4,
+                                   1, ParticleSystem.COLOR_EMBER, 36f, -0.1f, 0.85f);
                 }
             }
         }
+        
+        particles.update(dt);
+    }
+    
+    // Held torch and glowing enemies light their surroundings without relighting the world
+    private void updateDynamicLights() {
+        lightingSystem.beginDynamicLights();
+        
+        ItemStack held = player.getSelectedItem();
+        if (held != null && !held.isEmpty() && held.getItemType() == TileType.TORCH) {
+            lightingSystem.addDynamicLight(player.getCenterX() / World.TILE_SIZE,
+                                           player.getCenterY() / World.TILE_SIZE,
+                                           TileType.TORCH.getLightLevel());
+        }
+        for (Enemy enemy : enemies) {
+            if (enemy.getGlowLevel() > 0) {
+                lightingSystem.addDynamicLight(enemy.getCenterX() / World.TILE_SIZE,
+                                               enemy.getCenterY() / World.TILE_SIZE,
+                                               enemy.getGlowLevel());
+            }
+        }
+        
+        lightingSystem.endDynamicLights();
+    }
+    
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        Graphics2D g2d = (Graphics2D) g;
+        
+        // When capturing, render into a pooled image and copy that to the screen
+        if (frameCapture.isCapturePending()) {
+            BufferedImage captureImage = frameCapture.acquire();
+            if (captureImage != null) {
+                Graphics2D captureGraphics = captureImage.createGraphics();
+                renderFrame(captureGraphics);
+                captureGraphics.dispose();
+                g2d.drawImage(captureImage, 0, 0, null);
+                frameCapture.submit(captureImage);
+                return;
+            }
+        }
+        
+        renderFrame(g2d);
     }
     
-    private void update(long deltaTime) {
-        // Update time system
-        timeSystem.update(deltaTime);
-        celestialBodies.updateClouds(deltaTime);
+    private void renderFrame(Graphics2D g2d) {
+        long frameStart = System.nanoTime();
+        long frameInterval = 0;
+        if (lastFrameStart != 0) {
+            frameInterval = frameStart - lastFrameStart;
+            frameTimes.record(frameInterval);
+        }
+        lastFrameStart = frameStart;
+        frameProfiler.begin();
+        float scale = Math.min(renderScale, qualityGovernor.getRenderScale());
+        if (scale < 1.0f) {
+            // Draw the scene at reduced resolution, then stretch it over the window
+            Graphics2D sceneGraphics = getSceneBuffer(scale).createGraphics();
+            sceneGraphics.scale(scale, scale);
+            drawScene(sceneGraphics);
+            sceneGraphics.dispose();
+            
+            Object oldInterpolation = g2d.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                                 RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            g2d.drawImage(sceneBuffer, 0, 0, WINDOW_WIDTH, WINDOW_HEIGHT, null);
+            if (oldInterpolation != null) {
+                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, oldInterpolation);
+            }
+            frameProfiler.mark(Profiler.FRAME_SCALE);
+        } else {
+            drawScene(g2d);
+        }
         
-        // Update lighting
-        lightingSystem.calculateLighting(timeSystem.getAmbientLight());
+        // HUD always stays at native resolution
+        drawUI(g2d);
+        drawHotbar(g2d);
+        drawHealthBar(g2d);
+        drawTimeInfo(g2d);
         
-        // Spawn more enemies at night
-        if (timeSystem.isNight() && enemies.size() < 8 && Math.random() < 0.001) {
-            Random random = new Random();
-            float enemyX = random.nextInt(world.getWorldWidth() * World.TILE_SIZE);
-            float enemyY = World.TILE_SIZE * 15;
-            enemies.add(new Enemy(enemyX, enemyY, world, player));
+        // NEW: Draw crafting menu if open
+        if (craftingMenuOpen) {
+            craftingMenu.draw(g2d, WINDOW_WIDTH, WINDOW_HEIGHT);
         }
+        frameProfiler.mark(Profiler.FRAME_HUD);
+        frameProfiler.end();
         
-        // Update game objects
-        if (leftPressed) player.moveLeft();
-        if (rightPressed) player.moveRight();
-        if (spacePressed) player.jump();
-        
-        player.update();
-        camera.update(player.getCenterX(), player.getCenterY());
+        // The governor weighs the EDT's render time. Ticks run on their own thread, so they only
+        // count when this frame started late, and then only up to how late it was
+        long tickTotal = tickProfiler.getTotalNanos(Profiler.TICK_NAMES.length);
+        long lateNanos = Math.max(0, frameInterval - FRAME_NANOS);
+        long tickDelay = Math.min(tickTotal - lastTickTotal, lateNanos);
+        qualityGovernor.frameFinished(frameProfiler.getLastSampleNanos() + tickDelay);
+        lastTickTotal = tickTotal;
+        histogramReport.frameFinished();
         
-        // Update enemies
-        Iterator<Enemy> enemyIterator = enemies.iterator();
-        while (enemyIterator.hasNext()) {
-            Enemy enemy = enemyIterator.next();
-            enemy.update();
-            
-            if (enemy.isDead()) {
-                enemyIterator.remove();
+        if (showProfiler) {
+            profilerOverlay.refresh(gameThread);
+            profilerOverlay.draw(g2d, 10, 110, enemies.size(), particles.getLiveCount(),
+                                 weatherSystem.getDropCount(), damageIndicators.size(),
+                                 qualityGovernor.getLevelName());
+        }
+    }
+    
+    // Internal render target sized for the given render scale
+    private BufferedImage getSceneBuffer(float scale) {
+        int width = Math.max(1, Math.round(WINDOW_WIDTH * scale));
+        int height = Math.max(1, Math.round(WINDOW_HEIGHT * scale));
+        if (sceneBuffer == null || sceneBuffer.getWidth() != width || sceneBuffer.getHeight() != height) {
+            GraphicsConfiguration config = getGraphicsConfiguration();
+            sceneBuffer = config != null ?
+                          config.createCompatibleImage(width, height) :
+                          new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        return sceneBuffer;
+    }
+    
+    // The one place dt is derived from the tick rate: the real-time loop, headless runs and
+    // replays must all step with the same float, or replays drift from their recordings
+    static float tickSeconds(int rate) {
+        return (1000000000L / rate) / 1e9f;
+    }
+    
+    // Snap to the nearest supported rate (20/30/60/120 ticks per second)
+    public void setTickRate(int rate) {
+        int best = TICK_RATES[0];
+        for (int candidate : TICK_RATES) {
+            if (Math.abs(candidate - rate) < Math.abs(best - rate)) {
+                best = candidate;
             }
         }
-        
-        // Update damage indicators
-        Iterator<DamageIndicator> indicatorIterator = damageIndicators.iterator();
-        while (indicatorIterator.hasNext()) {
-            DamageIndicator indicator = indicatorIterator.next();
-            indicator.update();
-            
-            if (indicator.isExpired()) {
-                indicatorIterator.remove();
+        tickRate = best;
+        System.out.println("Tick rate: " + tickRate + " TPS");
+    }
+    
+    public void setRenderScale(float scale) {
+        renderScale = Math.max(0.25f, Math.min(1.0f, scale));
+        System.out.println("Render scale: " + (int) (renderScale * 100) + "%");
+    }
+    
+    private void toggleSmoothLighting() {
+        boolean smooth = !tileRenderer.isSmoothLighting();
+        tileRenderer.setSmoothLighting(smooth);
+        chunkPrefetcher.setSmoothLighting(smooth);
+        chunkCache.clear(); // After the mode switch, so prefetches still in the old mode are dropped
+        System.out.println("Smooth lighting: " + (smooth ? "ON" : "OFF"));
+    }
+    
+    private void cycleRenderScale() {
+        int next = 0;
+        for (int i = 0; i < RENDER_SCALES.length; i++) {
+            if (RENDER_SCALES[i] == renderScale) {
+                next = (i + 1) % RENDER_SCALES.length;
             }
         }
+        setRenderScale(RENDER_SCALES[next]);
     }
     
-    @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        Graphics2D g2d = (Graphics2D) g;
+    // Everything that lives in the world: sky, background, tiles and entities
+    private void drawScene(Graphics2D g2d) {
+        drawBackground(g2d);
+        drawWorld(g2d);
+        frameProfiler.mark(Profiler.FRAME_WORLD);
+        
+        // Cull enemies, player and damage indicators against the camera, then draw
+        // what is left layer by layer (lighting is only computed for visible objects)
+        drawList.begin(camera, WINDOW_WIDTH, WINDOW_HEIGHT);
+        drawList.addAll(enemies);
+        drawList.add(player);
+        drawList.add(particles);
+        drawList.add(weatherSystem);
+        drawList.addAll(damageIndicators);
+        drawList.draw(g2d, camera, lightingSystem, timeSystem.getAmbientLight());
+        frameProfiler.mark(Profiler.FRAME_ENTITIES);
+    }
+    
+    // Sky, stars, parallax and celestial bodies, limited to the rows the tiles leave uncovered
+    private void drawBackground(Graphics2D g2d) {
+        updateBackgroundSpan();
+        if (backgroundTop >= backgroundBottom) {
+            frameProfiler.mark(Profiler.FRAME_SKY);
+            return; // Viewport is fully underground, tiles cover everything
+        }
+        
+        Shape oldClip = g2d.getClip();
+        g2d.clipRect(0, backgroundTop, WINDOW_WIDTH, backgroundBottom - backgroundTop);
         
         // Draw sky with dynamic color
         g2d.setColor(timeSystem.getSkyColor());
-        g2d.fillRect(0, 0, WINDOW_WIDTH, WINDOW_HEIGHT);
+        g2d.fillRect(0, backgroundTop, WINDOW_WIDTH, backgroundBottom - backgroundTop);
         
         // Draw celestial bodies (stars must be first, before parallax layers)
-        celestialBodies.drawStars(g2d, timeSystem);
+        if (backgroundTop < CelestialBodies.STAR_FIELD_HEIGHT + 2) {
+            celestialBodies.drawStars(g2d, timeSystem, qualityGovernor.getStarStep());
+        }
+        frameProfiler.mark(Profiler.FRAME_SKY);
         
         // Draw parallax background layers (before world for depth)
-        for (ParallaxLayer layer : parallaxLayers) {
-            layer.draw(g2d, camera, WINDOW_WIDTH, WINDOW_HEIGHT, timeSystem);
+        for (int i = qualityGovernor.getFirstParallaxLayer(parallaxLayers.length); i < parallaxLayers.length; i++) {
+            ParallaxLayer layer = parallaxLayers[i];
+            if (layer.overlapsRows(backgroundTop, backgroundBottom, WINDOW_HEIGHT)) {
+                layer.draw(g2d, camera, WINDOW_WIDTH, WINDOW_HEIGHT, timeSystem);
+            }
         }
+        frameProfiler.mark(Profiler.FRAME_PARALLAX);
         
         // Draw celestial bodies (moon, sun, clouds on top of parallax)
         celestialBodies.drawMoon(g2d, timeSystem, WINDOW_WIDTH, WINDOW_HEIGHT);
         celestialBodies.drawSun(g2d, timeSystem, WINDOW_WIDTH, WINDOW_HEIGHT);
         celestialBodies.drawClouds(g2d, WINDOW_WIDTH);
         
-        drawWorld(g2d);
+        g2d.setClip(oldClip);
+        frameProfiler.mark(Profiler.FRAME_CELESTIAL);
+    }
+    
+    // Find the band of screen rows where at least one visible tile is AIR
+    private void updateBackgroundSpan() {
+        int cameraX = camera.getX();
+        int cameraY = camera.getY();
+        int startX = Math.max(0, cameraX / World.TILE_SIZE);
+        int endX = Math.min(world.getWorldWidth(), (cameraX + WINDOW_WIDTH) / World.TILE_SIZE + 1);
+        int startY = cameraY / World.TILE_SIZE;
+        int endY = (cameraY + WINDOW_HEIGHT) / World.TILE_SIZE + 1;
         
-        // Draw enemies with lighting
-        for (Enemy enemy : enemies) {
-            enemy.draw(g2d, camera, lightingSystem, timeSystem.getAmbientLight());
+        // Rows above the shallowest visible surface are open sky, no need to look at tiles
+        int minSurface = world.getWorldHeight();
+        for (int x = startX; x < endX; x++) {
+            minSurface = Math.min(minSurface, world.getSurfaceHeight(x));
         }
         
-        player.draw(g2d, camera, lightingSystem, timeSystem.getAmbientLight());
-        
-        // Draw damage indicators
-        for (DamageIndicator indicator : damageIndicators) {
-            indicator.draw(g2d, camera);
+        int firstOpen = -1;
+        int lastOpen = -1;
+        for (int y = startY; y < endY; y++) {
+            if (isTileRowOpen(y, startX, endX, minSurface)) {
+                firstOpen = y;
+                break;
+            }
+        }
+        if (firstOpen >= 0) {
+            for (int y = endY - 1; y >= firstOpen; y--) {
+                if (isTileRowOpen(y, startX, endX, minSurface)) {
+                    lastOpen = y;
+                    break;
+                }
+            }
         }
         
-        drawUI(g2d);
-        drawHotbar(g2d);
-        drawHealthBar(g2d);
-        drawTimeInfo(g2d);
-        
-        // NEW: Draw crafting menu if open
-        if (craftingMenuOpen) {
-            drawCraftingUI(g2d);
+        if (firstOpen < 0) {
+            backgroundTop = 0;
+            backgroundBottom = 0;
+        } else {
+            backgroundTop = Math.max(0, firstOpen * World.TILE_SIZE - cameraY);
+            backgroundBottom = Math.min(WINDOW_HEIGHT, (lastOpen + 1) * World.TILE_SIZE - cameraY);
+        }
+    }
+    
+    private boolean isTileRowOpen(int y, int startX, int endX, int minSurface) {
+        if (y < minSurface) {
+            return true;
+        }
+        for (int x = startX; x < endX; x++) {
+            if (world.getTile(x, y) == TileType.AIR) {
+                return true;
+            }
         }
+        return false;
     }
     
     private void drawWorld(Graphics2D g2d) {
@@ -1635,52 +5247,57 @@ public class CraftingGame extends JPanel implements Runnable, KeyListener, Mouse
                            (camera.getY() + WINDOW_HEIGHT) / World.TILE_SIZE + 1);
         
         // First pass: Draw tiles with lighting
-        for (int x = startX; x < endX; x++) {
-            for (int y = startY; y < endY; y++) {
-                TileType tile = world.getTile(x, y);
-                if (tile != TileType.AIR) {
-                    int lightLevel = lightingSystem.getLightLevel(x, y);
-                    
-                    // NEW: Use warm lamp glow for better lighting effect
-                    Color tileColor;
-                    if (tile == TileType.LAMP || (lightLevel > 10 && timeSystem.isNight())) {
-                        tileColor = lightingSystem.applyLampGlow(tile.getColor(), lightLevel, timeSystem.getAmbientLight());
-                    } else {
-                        tileColor = lightingSystem.applyLighting(tile.getColor(), lightLevel, timeSystem.getAmbientLight());
-                    }
-                    
-                    g2d.setColor(tileColor);
-                    g2d.fillRect(x * World.TILE_SIZE - camera.getX(),
-                               y * World.TILE_SIZE - camera.getY(),
-                               World.TILE_SIZE, World.TILE_SIZE);
+        float ambientLight = timeSystem.getAmbientLight();
+        boolean night = timeSystem.isNight();
+        int cameraX = camera.getX();
+        int cameraY = camera.getY();
+        
+        if (ambientLight == lastAmbientLight && night == lastNight) {
+            // Lighting is steady: blit cached chunk images and prefetch where the camera is heading
+            chunkCache.startFrame();
+            int chunkPixels = World.CHUNK_SIZE * World.TILE_SIZE;
+            int endCX = Math.min(World.CHUNKS_X - 1, (cameraX + WINDOW_WIDTH) / chunkPixels);
+            int endCY = Math.min(World.CHUNKS_Y - 1, (cameraY + WINDOW_HEIGHT) / chunkPixels);
+            for (int cy = cameraY / chunkPixels; cy <= endCY; cy++) {
+                for (int cx = cameraX / chunkPixels; cx <= endCX; cx++) {
+                    BufferedImage chunkImage = chunkCache.getOrRender(cy * World.CHUNKS_X + cx,
+                                                                      tileRenderer, ambientLight, night);
+                    g2d.drawImage(chunkImage, cx * chunkPixels - cameraX, cy * chunkPixels - cameraY, null);
                 }
             }
+            chunkPrefetcher.update(cameraX, cameraY, ambientLight, night);
+        } else {
+            // Ambient light is fading (dawn/dusk), cached chunks would be stale every frame
+            tileRenderer.drawTiles(g2d, startX, endX, startY, endY, cameraX, cameraY, ambientLight, night);
         }
+        lastAmbientLight = ambientLight;
+        lastNight = night;
         
         // NEW: Second pass: Draw lamp glow effects
         for (int x = startX; x < endX; x++) {
             for (int y = startY; y < endY; y++) {
                 TileType tile = world.getTile(x, y);
                 if (tile == TileType.LAMP) {
-                    drawLampGlow(g2d, x, y);
+                    drawLampGlow(g2d, x, y, qualityGovernor.getLampGlowLayers());
                 }
             }
         }
         
         // NEW: Third pass: Draw simple shadows
-        if (timeSystem.isNight()) {
+        if (timeSystem.isNight() && qualityGovernor.drawShadows()) {
             drawSimpleShadows(g2d, startX, endX, startY, endY);
+            shadowCaster.draw(g2d, startX, endX, startY, endY, cameraX, cameraY);
         }
     }
     
     // NEW: Draw glowing effect around lamps
-    private void drawLampGlow(Graphics2D g2d, int tileX, int tileY) {
+    private void drawLampGlow(Graphics2D g2d, int tileX, int tileY, int layers) {
         int screenX = tileX * World.TILE_SIZE - camera.getX();
         int screenY = tileY * World.TILE_SIZE - camera.getY();
         
         // Draw multiple layers of glow for soft effect
         int glowSize = 48; // 3 tiles
-        for (int i = 3; i > 0; i--) {
+        for (int i = layers; i > 0; i--) {
             int alpha = (int) (40 / i); // Fade out as we go further
             g2d.setColor(new Color(255, 220, 150, alpha));
             int size = glowSize * i / 3;
@@ -1722,126 +5339,24 @@ public class CraftingGame extends JPanel implements Runnable, KeyListener, Mouse
     }
     
     private void drawTimeInfo(Graphics2D g2d) {
-        g2d.setColor(Color.WHITE);
-        g2d.setFont(new Font("Arial", Font.BOLD, 14));
+        BitmapFont font = BitmapFont.HUD_LARGE;
+        int x = WINDOW_WIDTH - 150;
         
-        String timeStr = "Time: " + timeSystem.getTimeString();
-        String phaseStr = timeSystem.isNight() ? "NIGHT" : "DAY";
-        String lightStr = "Ambient Light: " + (int) (timeSystem.getAmbientLight() * 100) + "%";
+        // "Time: HH:MM"
+        int end = font.drawString(g2d, "Time: ", x, 20);
+        end = font.drawInt(g2d, timeSystem.getHour(), 2, end, 20);
+        end = font.drawString(g2d, ":", end, 20);
+        font.drawInt(g2d, timeSystem.getMinute(), 2, end, 20);
         
-        g2d.drawString(timeStr, WINDOW_WIDTH - 150, 20);
-        g2d.drawString(phaseStr, WINDOW_WIDTH - 150, 35);
-        g2d.drawString(lightStr, WINDOW_WIDTH - 150, 50);
+        font.drawString(g2d, timeSystem.isNight() ? "NIGHT" : "DAY", x, 35);
+        
+        end = font.drawString(g2d, "Ambient Light: ", x, 50);
+        end = font.drawInt(g2d, (int) (timeSystem.getAmbientLight() * 100), end, 50);
+        font.drawString(g2d, "%", end, 50);
         
         // Night warning
         if (timeSystem.isNight()) {
-            g2d.setColor(Color.RED);
-            g2d.drawString("MORE ENEMIES SPAWN AT NIGHT!", WINDOW_WIDTH - 200, 70);
-        }
-    }
-    
-    // NEW: Draw crafting menu UI
-    private void drawCraftingUI(Graphics2D g2d) {
-        // Semi-transparent background overlay
-        g2d.setColor(new Color(0, 0, 0, 180));
-        g2d.fillRect(0, 0, WINDOW_WIDTH, WINDOW_HEIGHT);
-        
-        // Crafting menu panel
-        int menuWidth = 500;
-        int menuHeight = 400;
-        int menuX = (WINDOW_WIDTH - menuWidth) / 2;
-        int menuY = (WINDOW_HEIGHT - menuHeight) / 2;
-        
-        g2d.setColor(new Color(50, 50, 50));
-        g2d.fillRect(menuX, menuY, menuWidth, menuHeight);
-        g2d.setColor(Color.WHITE);
-        g2d.setStroke(new BasicStroke(2));
-        g2d.drawRect(menuX, menuY, menuWidth, menuHeight);
-        
-        // Title
-        g2d.setFont(new Font("Arial", Font.BOLD, 24));
-        String title = player.isNearWorkbench() ? "CRAFTING (Workbench)" : "CRAFTING (Basic)";
-        g2d.drawString(title, menuX + 20, menuY + 35);
-        
-        // Instructions
-        g2d.setFont(new Font("Arial", Font.PLAIN, 12));
-        g2d.drawString("Click on a recipe to craft | Press C to close", menuX + 20, menuY + 55);
-        
-        // Get available recipes
-        java.util.List<CraftingRecipe> recipes = craftingSystem.getAvailableRecipes(player.isNearWorkbench());
-        
-        // Draw recipes
-        int recipeY = menuY + 80;
-        int recipeHeight = 60;
-        
-        for (int i = 0; i < recipes.size(); i++) {
-            CraftingRecipe recipe = recipes.get(i);
-            int recipeX = menuX + 20;
-            
-            // Check if player can craft this recipe
-            boolean canCraft = recipe.canCraft(player);
-            
-            // Background for recipe (highlight selected or craftable)
-            if (i == selectedRecipe) {
-                g2d.setColor(new Color(100, 150, 255, 100));
-            } else if (canCraft) {
-                g2d.setColor(new Color(50, 100, 50, 100));
-            } else {
-                g2d.setColor(new Color(100, 50, 50, 100));
-            }
-            g2d.fillRect(recipeX, recipeY, menuWidth - 40, recipeHeight);
-            
-            // Border
-            if (i == selectedRecipe) {
-                g2d.setColor(Color.CYAN);
-            } else {
-                g2d.setColor(Color.WHITE);
-            }
-            g2d.drawRect(recipeX, recipeY, menuWidth - 40, recipeHeight);
-            
-            // Recipe name and result
-            g2d.setColor(canCraft ? Color.WHITE : Color.GRAY);
-            g2d.setFont(new Font("Arial", Font.BOLD, 16));
-            g2d.drawString(recipe.getName(), recipeX + 10, recipeY + 25);
-            
-            // Result display
-            g2d.setColor(recipe.getResult().getColor());
-            g2d.fillRect(recipeX + 350, recipeY + 10, 40, 40);
-            g2d.setColor(Color.WHITE);
-            g2d.drawRect(recipeX + 350, recipeY + 10, 40, 40);
-            g2d.setFont(new Font("Arial", Font.BOLD, 12));
-            g2d.drawString("x" + recipe.getResultQuantity(), recipeX + 400, recipeY + 35);
-            
-            // Ingredients
-            g2d.setFont(new Font("Arial", Font.PLAIN, 12));
-            StringBuilder ingredientsStr = new StringBuilder("Needs: ");
-            TileType[] ingredientTypes = recipe.getIngredients();
-            int[] ingredientQtys = recipe.getIngredientQuantities();
-            for (int j = 0; j < ingredientTypes.length; j++) {
-                ingredientsStr.append(ingredientQtys[j])
-                          .append("x ")
-                          .append(ingredientTypes[j].name())
-                          .append("  ");
-            }
-            g2d.drawString(ingredientsStr.toString(), recipeX + 10, recipeY + 45);
-            
-            // Workbench requirement
-            if (recipe.requiresWorkbench()) {
-                g2d.setColor(Color.YELLOW);
-                g2d.drawString("[Workbench Required]", recipeX + 10, recipeY + 58);
-            }
-            
-            recipeY += recipeHeight + 10;
-        }
-        
-        // No recipes message
-        if (recipes.isEmpty()) {
-            g2d.setColor(Color.WHITE);
-            g2d.setFont(new Font("Arial", Font.BOLD, 16));
-            String msg = player.isNearWorkbench() ? 
-                        "All recipes available! Gather materials to craft." :
-                        "Build a WORKBENCH (4 Stone) to unlock more recipes!";
-            g2d.drawString(msg, menuX + 50, menuY + 150);
+            BitmapFont.HUD_LARGE_RED.drawString(g2d, "MORE ENEMIES SPAWN AT NIGHT!", WINDOW_WIDTH - 200, 70);
         }
     }
     
@@ -1863,13 +5378,14 @@ public class CraftingGame extends JPanel implements Runnable, KeyListener, Mouse
         g2d.setColor(Color.WHITE);
         g2d.drawRect(x, y, barWidth, barHeight);
         
-        g2d.setFont(new Font("Arial", Font.BOLD, 12));
-        String healthText = player.getHealth() + "/" + player.getMaxHealth() + " HP";
-        g2d.drawString(healthText, x + 5, y + 15);
+        // "<health>/<max> HP"
+        int end = BitmapFont.HUD.drawInt(g2d, player.getHealth(), x + 5, y + 15);
+        end = BitmapFont.HUD.drawString(g2d, "/", end, y + 15);
+        end = BitmapFont.HUD.drawInt(g2d, player.getMaxHealth(), end, y + 15);
+        BitmapFont.HUD.drawString(g2d, " HP", end, y + 15);
         
         if (player.isInvulnerable()) {
-            g2d.setColor(Color.CYAN);
-            g2d.drawString("INVULNERABLE", x + barWidth + 10, y + 15);
+            BitmapFont.HUD_CYAN.drawString(g2d, "INVULNERABLE", x + barWidth + 10, y + 15);
         }
     }
     
@@ -1908,69 +5424,34 @@ public class CraftingGame extends JPanel implements Runnable, KeyListener, Mouse
                 g2d.setColor(Color.BLACK);
                 g2d.drawRect(slotX + 8, hotbarY + 8, slotSize - 16, slotSize - 16);
                 
-                g2d.setColor(Color.WHITE);
-                g2d.setFont(new Font("Arial", Font.BOLD, 12));
-                String quantityStr = String.valueOf(item.getQuantity());
-                FontMetrics fm = g2d.getFontMetrics();
-                int textWidth = fm.stringWidth(quantityStr);
-                g2d.drawString(quantityStr, 
-                              slotX + slotSize - textWidth - 5, 
-                              hotbarY + slotSize - 5);
+                int textWidth = BitmapFont.HUD.intWidth(item.getQuantity());
+                BitmapFont.HUD.drawInt(g2d, item.getQuantity(),
+                                       slotX + slotSize - textWidth - 5,
+                                       hotbarY + slotSize - 5);
             }
             
-            g2d.setColor(Color.WHITE);
-            g2d.setFont(new Font("Arial", Font.BOLD, 10));
-            g2d.drawString(String.valueOf(i + 1), slotX + 2, hotbarY + 12);
+            BitmapFont.HUD_SMALL.drawInt(g2d, i + 1, slotX + 2, hotbarY + 12);
         }
     }
     
     private void drawUI(Graphics2D g2d) {
-        g2d.setColor(Color.WHITE);
-        g2d.setFont(new Font("Arial", Font.BOLD, 12));
-        g2d.drawString("Crafting System - Lesson 11", 10, 20);
-        g2d.drawString("Controls: A/D - Move, Space - Jump, C - Crafting", 10, 35);
-        g2d.drawString("Mouse: Left - Break, Right - Place", 10, 50);
-        g2d.drawString("Keys 1-9: Select Hotbar Slot", 10, 65);
-        g2d.drawString("Enemies: " + enemies.size(), 10, 80);
-        g2d.drawString("NEW: Press C to craft items!", 10, 95);
+        BitmapFont font = BitmapFont.HUD;
+        font.drawString(g2d, "Crafting System - Lesson 11", 10, 20);
+        font.drawString(g2d, "Controls: A/D - Move, Space - Jump, C - Crafting", 10, 35);
+        font.drawString(g2d, "Mouse: Left - Break, Right - Place", 10, 50);
+        font.drawString(g2d, "Keys 1-9: Select Hotbar Slot", 10, 65);
+        int end = font.drawString(g2d, "Enemies: ", 10, 80);
+        font.drawInt(g2d, enemies.size(), end, 80);
+        font.drawString(g2d, "NEW: Press C to craft items!", 10, 95);
     }
     
     @Override
     public void mouseClicked(MouseEvent e) {
         // NEW: Handle crafting menu clicks first
         if (craftingMenuOpen && e.getButton() == MouseEvent.BUTTON1) {
-            int menuWidth = 500;
-            int menuHeight = 400;
-            int menuX = (WINDOW_WIDTH - menuWidth) / 2;
-            int menuY = (WINDOW_HEIGHT - menuHeight) / 2;
-            
-            // Get available recipes
-            java.util.List<CraftingRecipe> recipes = craftingSystem.getAvailableRecipes(player.isNearWorkbench());
-            
-            // Check if click is within menu bounds
-            if (e.getX() >= menuX && e.getX() <= menuX + menuWidth &&
-                e.getY() >= menuY && e.getY() <= menuY + menuHeight) {
-                
-                // Calculate which recipe was clicked
-                int recipeY = menuY + 80;
-                int recipeHeight = 60;
-                
-                for (int i = 0; i < recipes.size(); i++) {
-                    if (e.getY() >= recipeY && e.getY() <= recipeY + recipeHeight) {
-                        selectedRecipe = i;
-                        CraftingRecipe recipe = recipes.get(i);
-                        
-                        // Try to craft if player has ingredients
-                        if (recipe.canCraft(player)) {
-                            recipe.craft(player);
-                            System.out.println("Crafted: " + recipe.getName());
-                        } else {
-                            System.out.println("Cannot craft " + recipe.getName() + " - missing ingredients!");
-                        }
-                        return;
-                    }
-                    recipeY += recipeHeight + 10;
-                }
+            CraftingRecipe recipe = craftingMenu.handleClick(e.getX(), e.getY(), WINDOW_WIDTH, WINDOW_HEIGHT);
+            if (recipe != null) {
+                commands.offer(CommandQueue.CRAFT, craftingSystem.getAllRecipes().indexOf(recipe), 0);
             }
             return; // Don't process world clicks when menu is open
         }
@@ -1980,30 +5461,71 @@ public class CraftingGame extends JPanel implements Runnable, KeyListener, Mouse
         int worldY = (e.getY() + camera.getY()) / World.TILE_SIZE;
         
         if (e.getButton() == MouseEvent.BUTTON1) {
-            TileType tileToBreak = world.getTile(worldX, worldY);
-            if (tileToBreak != TileType.AIR) {
-                world.setTile(worldX, worldY, TileType.AIR);
-                player.collectItem(tileToBreak, 1);
-                
-                // Check if we hit an enemy
-                for (Enemy enemy : enemies) {
-                    if (Math.abs(enemy.getX() - worldX * World.TILE_SIZE) < World.TILE_SIZE &&
-                        Math.abs(enemy.getY() - worldY * World.TILE_SIZE) < World.TILE_SIZE) {
-                        enemy.takeDamage(25);
-                        
-                        damageIndicators.add(new DamageIndicator(
-                            enemy.getX(), enemy.getY() - 10, 25));
-                        break;
-                    }
+            commands.offer(CommandQueue.BREAK_BLOCK, worldX, worldY);
+        } else if (e.getButton() == MouseEvent.BUTTON3) {
+            commands.offer(CommandQueue.PLACE_BLOCK, worldX, worldY);
+        }
+    }
+    
+    private void breakBlock(int worldX, int worldY) {
+        TileType tileToBreak = world.getTile(worldX, worldY);
+        if (tileToBreak != TileType.AIR) {
+            world.setTile(worldX, worldY, TileType.AIR);
+            player.collectItem(tileToBreak, 1);
+            particles.emit(worldX * World.TILE_SIZE + World.TILE_SIZE / 2f,
+                           worldY * World.TILE_SIZE + World.TILE_SIZE / 2f,
+                           12, tileToBreak.ordinal(), 180f, 1.0f, 0.75f);
+            
+            // Check if we hit an enemy
+            for (Enemy enemy : enemies) {
+                if (Math.abs(enemy.getX() - worldX * World.TILE_SIZE) < World.TILE_SIZE &&
+                    Math.abs(enemy.getY() - worldY * World.TILE_SIZE) < World.TILE_SIZE) {
+                    enemy.takeDamage(25);
+                    particles.emit(enemy.getCenterX(), enemy.getCenterY(), 10,
+                                   ParticleSystem.COLOR_BLOOD, 150f, 1.0f, 0.6f);
+                    
+                    damageIndicators.add(new DamageIndicator(
+                        enemy.getX(), enemy.getY() - 10, 25));
+                    break;
                 }
             }
-        } else if (e.getButton() == MouseEvent.BUTTON3) {
-            ItemStack selectedItem = player.getSelectedItem();
-            if (selectedItem != null && world.getTile(worldX, worldY) == TileType.AIR) {
-                world.setTile(worldX, worldY, selectedItem.getItemType());
-                player.useSelectedItem();
+        }
+    }
+    
+    private void placeBlock(int worldX, int worldY) {
+        ItemStack selectedItem = player.getSelectedItem();
+        if (selectedItem != null && world.getTile(worldX, worldY) == TileType.AIR) {
+            world.setTile(worldX, worldY, selectedItem.getItemType());
+            player.useSelectedItem();
+        }
+    }
+    
+    // Craft the recipe at this index of CraftingSystem.getAllRecipes(), if the player can
+    private boolean craftRecipe(int index) {
+        List<CraftingRecipe> recipes = craftingSystem.getAllRecipes();
+        if (index < 0 || index >= recipes.size()) {
+            return false;
+        }
+        CraftingRecipe recipe = recipes.get(index);
+        CraftEvent event = FlightEvents.active() && CraftEvent.TYPE.isEnabled() ? new CraftEvent() : null;
+        if (event != null) {
+            event.begin();
+            event.recipe = recipe.getName();
+        }
+        if ((recipe.requiresWorkbench() && !player.isNearWorkbench()) || !recipe.canCraft(player)) {
+            System.out.println("Cannot craft " + recipe.getName() + " - missing ingredients!");
+            if (event != null) {
+                event.commit();
             }
+            return false;
         }
+        recipe.craft(player);
+        if (event != null) {
+            event.crafted = true;
+            event.commit();
+        }
+        System.out.println("Crafted: " + recipe.getName());
+        return true;
     }
     
     @Override
@@ -2011,27 +5533,48 @@ public class CraftingGame extends JPanel implements Runnable, KeyListener, Mouse
         switch (e.getKeyCode()) {
             case KeyEvent.VK_A:
             case KeyEvent.VK_LEFT:
-                leftPressed = true;
+                commands.offer(CommandQueue.KEY_DOWN, CommandQueue.KEY_LEFT, 0);
                 break;
             case KeyEvent.VK_D:
             case KeyEvent.VK_RIGHT:
-                rightPressed = true;
+                commands.offer(CommandQueue.KEY_DOWN, CommandQueue.KEY_RIGHT, 0);
                 break;
             case KeyEvent.VK_SPACE:
             case KeyEvent.VK_W:
             case KeyEvent.VK_UP:
-                spacePressed = true;
+                commands.offer(CommandQueue.KEY_DOWN, CommandQueue.KEY_JUMP, 0);
                 break;
             case KeyEvent.VK_C:
                 // NEW: Toggle crafting menu
                 craftingMenuOpen = !craftingMenuOpen;
-                selectedRecipe = 0; // Reset selection
+                craftingMenu.reset(); // Reset selection and scroll
+                break;
+            case KeyEvent.VK_R:
+                cycleRenderScale();
+                break;
+            case KeyEvent.VK_L:
+                toggleSmoothLighting();
+                break;
+            case KeyEvent.VK_F2:
+                frameCapture.requestScreenshot();
+                break;
+            case KeyEvent.VK_F3:
+                showProfiler = !showProfiler;
+                break;
+            case KeyEvent.VK_F4:
+                histogramReport.requestDump();
+                break;
+            case KeyEvent.VK_F5:
+                qualityGovernor.setEnabled(!qualityGovernor.isEnabled());
+                break;
+            case KeyEvent.VK_F9:
+                frameCapture.toggleRecording();
                 break;
             case KeyEvent.VK_1: case KeyEvent.VK_2: case KeyEvent.VK_3:
             case KeyEvent.VK_4: case KeyEvent.VK_5: case KeyEvent.VK_6:
             case KeyEvent.VK_7: case KeyEvent.VK_8: case KeyEvent.VK_9:
                 int slot = e.getKeyCode() - KeyEvent.VK_1;
-                player.selectSlot(slot);
+                commands.offer(CommandQueue.SELECT_SLOT, slot, 0);
                 break;
             default:
                 break;
@@ -2043,16 +5586,16 @@ public class CraftingGame extends JPanel implements Runnable, KeyListener, Mouse
         switch (e.getKeyCode()) {
             case KeyEvent.VK_A:
             case KeyEvent.VK_LEFT:
-                leftPressed = false;
+                commands.offer(CommandQueue.KEY_UP, CommandQueue.KEY_LEFT, 0);
                 break;
             case KeyEvent.VK_D:
             case KeyEvent.VK_RIGHT:
-                rightPressed = false;
+                commands.offer(CommandQueue.KEY_UP, CommandQueue.KEY_RIGHT, 0);
                 break;
             case KeyEvent.VK_SPACE:
             case KeyEvent.VK_W:
             case KeyEvent.VK_UP:
-                spacePressed = false;
+                commands.offer(CommandQueue.KEY_UP, CommandQueue.KEY_JUMP, 0);
                 break;
             default:
                 break;
@@ -2070,9 +5613,214 @@ public class CraftingGame extends JPanel implements Runnable, KeyListener, Mouse
     @Override
     public void mouseExited(MouseEvent e) {}
     
-    public static void main(String[] args) {
+    @Override
+    public void mouseWheelMoved(MouseWheelEvent e) {
+        if (craftingMenuOpen) {
+            craftingMenu.scroll(e.getWheelRotation());
+        }
+    }
+    
+    // Headless soak/profiling run: java CraftingGame --headless [ticks] [tps] [script]
+    // Runs the simulation as fast as possible on the calling thread, without a window or the EDT.
+    // Script lines are "<tick> <action> [args]" with actions left, right, stop, jump,
+    // slot <1-9>, break <x> <y>, place <x> <y> and craft <index>; '#' starts a comment.
+    private static void runHeadless(String[] args) throws IOException {
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 36000;
+        int tps = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        List<String[]> script = new ArrayList<>();
+        if (args.length > 3) {
+            for (String line : java.nio.file.Files.readAllLines(new File(args[3]).toPath())) {
+                int comment = line.indexOf('#');
+                String text = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                if (!text.isEmpty()) {
+                    script.add(text.split("\\s+"));
+                }
+            }
+            script.sort((a, b) -> Integer.compare(Integer.parseInt(a[0]), Integer.parseInt(b[0])));
+        }
+        
+        long setupStart = System.nanoTime();
+        String seed = System.getProperty("game.seed");
+        CraftingGame game = seed != null ? new CraftingGame(Long.parseLong(seed)) : new CraftingGame();
+        game.setTickRate(tps);
+        long setupNanos = System.nanoTime() - setupStart;
+        
+        String record = System.getProperty("game.record");
+        if (record != null) {
+            game.startRecording(new File(record));
+        }
+        game.runSimulation(ticks, setupNanos, script, null);
+        game.finishRecording();
+    }
+    
+    // Record a headless run, replay it and fail unless the checksums match:
+    // java CraftingGame --check-replay [ticks] [tps] [script]
+    private static boolean checkReplay(String[] args) throws IOException {
+        File file = File.createTempFile("replay-check", ".rec");
+        file.deleteOnExit();
+        System.setProperty("game.record", file.getPath());
+        runHeadless(args);
+        return runReplay(new String[] {"--replay", file.getPath()});
+    }
+    
+    // Replay a recording at full speed and check it ends in the recorded state:
+    // java CraftingGame --replay session.rec
+    private static boolean runReplay(String[] args) throws IOException {
+        InputRecording replay = InputRecording.load(new File(args[1]));
+        long setupStart = System.nanoTime();
+        CraftingGame game = new CraftingGame(replay.seed);
+        game.setTickRate(replay.tickRate);
+        long setupNanos = System.nanoTime() - setupStart;
+        
+        System.out.println("Replaying " + replay.commandCount + " commands over " + replay.totalTicks + " ticks");
+        game.runSimulation(replay.totalTicks, setupNanos, null, replay);
+        long checksum = game.stateChecksum();
+        System.out.println(checksum == replay.checksum ? "Replay matches the recording"
+                                                       : "Replay DIVERGED from the recording");
+        return checksum == replay.checksum;
+    }
+    
+    // Shared headless loop; input comes from a script or a recording (either may be null)
+    private void runSimulation(long ticks, long setupNanos, List<String[]> script, InputRecording replay) {
+        CraftingGame game = this;
+        java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean ?
+                                                      (com.sun.management.ThreadMXBean) threads : null;
+        long threadId = Thread.currentThread().getId();
+        long allocatedStart = allocations != null ? allocations.getThreadAllocatedBytes(threadId) : -1;
+        
+        if (Boolean.getBoolean("game.histogram.perMinute")) {
+            histogramReport.startPerMinute();
+        }
+        
+        float dt = tickSeconds(game.tickRate);
+        int next = 0;
+        long start = System.nanoTime();
+        for (long t = 0; t < ticks; t++) {
+            while (script != null && next < script.size() && Long.parseLong(script.get(next)[0]) <= t) {
+                game.runScriptCommand(script.get(next++));
+            }
+            // A command recorded on tick n was applied by the nth update (ticks count from 1)
+            while (replay != null && next < replay.commandCount && replay.commandTicks[next] <= t + 1) {
+                long command = replay.commands[next++];
+                game.commands.offer(CommandQueue.type(command), CommandQueue.argA(command),
+                                    CommandQueue.argB(command));
+            }
+            game.update(dt);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocations != null ? allocations.getThreadAllocatedBytes(threadId) - allocatedStart : -1;
+        
+        double seconds = elapsed / 1e9;
+        System.out.printf("Setup (world generation, lighting, caches): %.1f ms%n", setupNanos / 1e6);
+        System.out.printf("Ran %d ticks at %d TPS (%.1f s of game time) in %.2f s: %.0f ticks/s%n",
+                          ticks, game.tickRate, ticks * dt, seconds, ticks / seconds);
+        if (allocated >= 0) {
+            System.out.printf("Allocated %.1f MB: %.1f MB/s, %.0f bytes/tick%n",
+                              allocated / 1e6, allocated / 1e6 / seconds, (double) allocated / ticks);
+        }
+        System.out.println("Subsystem        total ms   us/tick   share");
+        for (int i = 0; i < Profiler.TICK_NAMES.length; i++) {
+            long nanos = game.tickProfiler.getTotalNanos(i);
+            System.out.printf("%-15s %9.1f %9.1f %6.1f%%%n", Profiler.TICK_NAMES[i], nanos / 1e6,
+                              nanos / 1e3 / ticks, 100.0 * nanos / elapsed);
+        }
+        System.out.println("Tick time: " + tickTimes.summary());
+        histogramReport.close();
+        System.out.println("Player at tile " + game.player.getCenterX() / World.TILE_SIZE + ", " +
+                           game.player.getCenterY() / World.TILE_SIZE + ", enemies: " + game.enemies.size());
+    }
+    
+    // Scripted input goes through the same command queue as keyboard and mouse input
+    private void runScriptCommand(String[] command) {
+        switch (command[1]) {
+            case "left":
+                commands.offer(CommandQueue.KEY_UP, CommandQueue.KEY_RIGHT, 0);
+                commands.offer(CommandQueue.KEY_DOWN, CommandQueue.KEY_LEFT, 0);
+                break;
+            case "right":
+                commands.offer(CommandQueue.KEY_UP, CommandQueue.KEY_LEFT, 0);
+                commands.offer(CommandQueue.KEY_DOWN, CommandQueue.KEY_RIGHT, 0);
+                break;
+            case "stop":
+                commands.offer(CommandQueue.KEY_UP, CommandQueue.KEY_LEFT, 0);
+                commands.offer(CommandQueue.KEY_UP, CommandQueue.KEY_RIGHT, 0);
+                break;
+            case "jump":
+                commands.offer(CommandQueue.KEY_DOWN, CommandQueue.KEY_JUMP, 0);
+                commands.offer(CommandQueue.KEY_UP, CommandQueue.KEY_JUMP, 0);
+                break;
+            case "slot":
+                commands.offer(CommandQueue.SELECT_SLOT, Integer.parseInt(command[2]) - 1, 0);
+                break;
+            case "break":
+                commands.offer(CommandQueue.BREAK_BLOCK, Integer.parseInt(command[2]), Integer.parseInt(command[3]));
+                break;
+            case "place":
+                commands.offer(CommandQueue.PLACE_BLOCK, Integer.parseInt(command[2]), Integer.parseInt(command[3]));
+                break;
+            case "craft":
+                commands.offer(CommandQueue.CRAFT, Integer.parseInt(command[2]), 0);
+                break;
+            default:
+                System.out.println("Unknown script command: " + String.join(" ", command));
+                break;
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--headless")) {
+            System.setProperty("java.awt.headless", "true");
+            runHeadless(args);
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--replay")) {
+            System.setProperty("java.awt.headless", "true");
+            if (!runReplay(args)) {
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--check-replay")) {
+            System.setProperty("java.awt.headless", "true");
+            if (!checkReplay(args)) {
+                System.exit(1);
+            }
+            return;
+        }
+        
         JFrame frame = new JFrame("Terraria Clone - Lesson 11: Crafting System");
-        CraftingGame game = new CraftingGame();
+        // Optional: java -Dgame.seed=42 CraftingGame for a repeatable world
+        String seed = System.getProperty("game.seed");
+        CraftingGame game = seed != null ? new CraftingGame(Long.parseLong(seed)) : new CraftingGame();
+        
+        // Optional: java -Dgame.renderScale=0.5 CraftingGame
+        String scale = System.getProperty("game.renderScale");
+        if (scale != null) {
+            game.setRenderScale(Float.parseFloat(scale));
+        }
+        
+        // Optional: java -Dgame.tps=20 CraftingGame (20, 30, 60 or 120 ticks per second)
+        String tps = System.getProperty("game.tps");
+        if (tps != null) {
+            game.setTickRate(Integer.parseInt(tps));
+        }
+        
+        // Optional: java -Dgame.record=session.rec CraftingGame, then CraftingGame --replay session.rec
+        String record = System.getProperty("game.record");
+        if (record != null) {
+            game.startRecording(new File(record));
+        }
+        
+        // Optional: java -Dgame.histogram.perMinute=true CraftingGame
+        if (Boolean.getBoolean("game.histogram.perMinute")) {
+            game.histogramReport.startPerMinute();
+        }
+        
+        // Optional: java -Dgame.governor=false CraftingGame keeps full quality whatever the frame time
+        if ("false".equals(System.getProperty("game.governor"))) {
+            game.qualityGovernor.setEnabled(false);
+        }
         
         frame.add(game);
         frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
@@ -2085,4 +5833,45 @@ public class CraftingGame extends JPanel implements Runnable, KeyListener, Mouse
         
         Runtime.getRuntime().addShutdownHook(new Thread(game::stopGame));
     }
-}
\ No newline at end of file
+    
+    // NEW: Applies per-pixel light to a buffer of tile colours in one pass. Nested here so the
+    // optional VectorLightShader.java can implement it as CraftingGame.LightShader.
+    // Pixel alpha selects the formula: ALBEDO_EMPTY (left as is), ALBEDO_LIT (applyLightingRGB)
+    // or ALBEDO_LAMP (applyLampGlowRGB). Output pixels are opaque.
+    interface LightShader {
+        int ALBEDO_EMPTY = 0x00;
+        int ALBEDO_LIT = 0xFF;
+        int ALBEDO_LAMP = 0x80;
+        
+        // Shade pixels[from, to) in place using light[from, to) (0-15)
+        void shade(int[] pixels, float[] light, int from, int to, float ambientLight);
+        
+        // Uses VectorLightShader when it was compiled and the jdk.incubator.vector module is present
+        static LightShader create() {
+            try {
+                return (LightShader) Class.forName("VectorLightShader").getDeclaredConstructor().newInstance();
+            } catch (Throwable e) {
+                return new ScalarLightShader();
+            }
+        }
+    }
+    
+    static class ScalarLightShader implements LightShader {
+        @Override
+        public void shade(int[] pixels, float[] light, int from, int to, float ambientLight) {
+            for (int i = from; i < to; i++) {
+                pixels[i] = shadePixel(pixels[i], light[i], ambientLight);
+            }
+        }
+        
+        static int shadePixel(int albedo, float light, float ambientLight) {
+            int mode = albedo >>> 24;
+            if (mode == ALBEDO_EMPTY) {
+                return albedo;
+            }
+            int rgb = mode == ALBEDO_LAMP ? LightingSystem.applyLampGlowRGB(albedo, light, ambientLight)
+                                          : LightingSystem.applyLightingRGB(albedo, light, ambientLight);
+            return 0xFF000000 | rgb;
+        }
+    }
+}
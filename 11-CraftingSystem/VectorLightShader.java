@@ -0,0 +1,82 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Optional SIMD version of ScalarLightShader using the incubating Vector API (JDK 16+).
+// Loaded by LightShader.create() when compiled and run with --add-modules jdk.incubator.vector.
+// Every lane does the same float operations in the same order as applyLightingRGB and
+// applyLampGlowRGB, so the output is identical to the scalar shader.
+class VectorLightShader implements CraftingGame.LightShader {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    public VectorLightShader() {
+        if (INTS.length() != FLOATS.length()) {
+            throw new IllegalStateException("Int and float vectors differ in lane count");
+        }
+    }
+
+    @Override
+    public void shade(int[] pixels, float[] light, int from, int to, float ambientLight) {
+        float ambientFloor = ambientLight * 0.15f;
+        int i = from;
+        int bound = from + INTS.loopBound(to - from);
+        for (; i < bound; i += INTS.length()) {
+            IntVector albedo = IntVector.fromArray(INTS, pixels, i);
+            IntVector mode = albedo.lanewise(VectorOperators.LSHR, 24);
+            VectorMask<Integer> empty = mode.eq(ALBEDO_EMPTY);
+            if (empty.allTrue()) {
+                continue;
+            }
+            VectorMask<Integer> lamp = mode.eq(ALBEDO_LAMP);
+
+            FloatVector level = FloatVector.fromArray(FLOATS, light, i).div(15.0f);
+            FloatVector totalLight = level.max(ambientFloor).min(1.0f);
+            FloatVector warmth = level.mul(0.3f);
+
+            FloatVector red = channel(albedo, 16).mul(totalLight);
+            FloatVector green = channel(albedo, 8).mul(totalLight);
+            FloatVector blue = channel(albedo, 0).mul(totalLight);
+
+            // Regular lighting
+            IntVector r = toInt(red);
+            IntVector g = toInt(green);
+            IntVector b = toInt(blue);
+
+            // Lamp glow: warm tint on red and green, clamped to 255
+            if (lamp.anyTrue()) {
+                IntVector lampR = toInt(red.mul(warmth.add(1.0f))).min(255);
+                IntVector lampG = toInt(green.mul(warmth.mul(0.7f).add(1.0f))).min(255);
+                r = r.blend(lampR, lamp);
+                g = g.blend(lampG, lamp);
+            }
+
+            IntVector shaded = r.lanewise(VectorOperators.LSHL, 16)
+                                .or(g.lanewise(VectorOperators.LSHL, 8))
+                                .or(b)
+                                .or(0xFF000000);
+            albedo.blend(shaded, empty.not()).intoArray(pixels, i);
+        }
+
+        // Tail that does not fill a whole vector
+        for (; i < to; i++) {
+            pixels[i] = CraftingGame.ScalarLightShader.shadePixel(pixels[i], light[i], ambientLight);
+        }
+    }
+
+    private static FloatVector channel(IntVector albedo, int shift) {
+        return (FloatVector) albedo.lanewise(VectorOperators.LSHR, shift).and(0xFF)
+                                   .convertShape(VectorOperators.I2F, FLOATS, 0);
+    }
+
+    // Same as (int) v for 0 <= v < 2^24, done on the float bits: the F2I lane conversion is
+    // not intrinsified on every JDK/CPU and falls back to a very slow path there
+    private static IntVector toInt(FloatVector v) {
+        IntVector bits = (IntVector) v.reinterpretShape(INTS, 0);
+        IntVector mantissa = bits.and(0x7FFFFF).or(0x800000);
+        IntVector shift = bits.lanewise(VectorOperators.LSHR, 23).neg().add(150).min(31);
+        return mantissa.lanewise(VectorOperators.LSHR, shift);
+    }
+}